@@ -0,0 +1,79 @@
+package retrieval;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import thor.Model;
+import thor.graphics.Point3D;
+import thor.model.geoset.Mesh;
+import thor.model.geoset.MeshDecimator;
+import thor.model.io.ModelIO;
+
+/**
+ * Measures how much decimating a model changes its shape distributions.
+ * <br />
+ * Usage: DecimationTester model [target faces]
+ * <br />
+ * For every shape function, the histogram of the decimated model is compared with that of
+ * the original by their L1 distance (both normalized to sum 1, so it goes from 0 to 2). The
+ * distance between two histograms of the original made from different samples is printed
+ * alongside, as the deviation that sampling alone gives.
+ */
+public class DecimationTester {
+    public static void main(String[] args) throws IllegalArgumentException, IOException {
+        final String modelFilename = args[0];
+        final int targetFaces = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+        final int shapeFunctionSamples = 1000000;
+        final int shapeDistrBins = 64;
+
+        //Load and normalize model.
+        Model model = ModelIO.read(new File(modelFilename));
+        ModelNormalizer.normalize(model);
+        Mesh mesh = model.getMeshes().get(0);
+
+        //Decimate it.
+        long start = System.nanoTime();
+        Mesh decimated = MeshDecimator.decimate(mesh, targetFaces);
+        long time = System.nanoTime() - start;
+        System.out.println("Faces: " + mesh.countFaces() + " -> " + decimated.countFaces()
+                + " in " + (time / 1000000) + " ms (manifold: " + mesh.isManifold() + " -> " + decimated.isManifold() + ")");
+
+        //Compare the shape distributions.
+        for (ShapeFunction function : ShapeFunction.values()) {
+            double[] original = histogram(mesh, function, shapeFunctionSamples, shapeDistrBins);
+            double[] resampled = histogram(mesh, function, shapeFunctionSamples, shapeDistrBins);
+            double[] lod = histogram(decimated, function, shapeFunctionSamples, shapeDistrBins);
+            System.out.printf("%s: L1 deviation %.4f (sampling alone %.4f)%n",
+                    function, distance(original, lod), distance(original, resampled));
+        }
+    }
+
+    /**
+     * @return the histogram of the shape function over points sampled on the mesh, normalized to sum 1
+     */
+    private static double[] histogram(Mesh mesh, ShapeFunction function, int samples, int bins) {
+        UniformMeshSurfaceSampler sampler = new UniformMeshSurfaceSampler(mesh);
+        Point3D[] points = new Point3D[samples * function.getPointsPerValue()];
+        for (int p = 0; p < points.length; p++) {
+            points[p] = sampler.getPoint();
+        }
+        double[] values = function.computeValues(samples, points);
+        ShapeDistribution distr = new ShapeDistribution(bins, function.getMinBoundary(), function.getMaxBoundary());
+        distr.addSamples(values);
+        List<Integer> counts = distr.getBins();
+        double[] histogram = new double[bins];
+        for (int bin = 0; bin < bins; bin++) {
+            histogram[bin] = counts.get(bin) / (double) values.length;
+        }
+        return histogram;
+    }
+
+    private static double distance(double[] a, double[] b) {
+        double sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += Math.abs(a[i] - b[i]);
+        }
+        return sum;
+    }
+}
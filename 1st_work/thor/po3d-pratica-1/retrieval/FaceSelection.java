@@ -0,0 +1,30 @@
+package retrieval;
+
+/**
+ * Enumeration of the ways {@link UniformMeshSurfaceSampler} can select the face of each point.
+ */
+public enum FaceSelection {
+    /**
+     * Select faces in constant time with an alias table (see {@link FaceSelector.AliasTable}).
+     */
+    ALIAS {
+        public FaceSelector createSelector(double[] faceAreas) {
+            return new FaceSelector.AliasTable(faceAreas);
+        }
+    },
+    /**
+     * Select faces by a binary search over their cumulative areas, which takes
+     * less memory (see {@link FaceSelector.CumulativeAreas}).
+     */
+    BINARY_SEARCH {
+        public FaceSelector createSelector(double[] faceAreas) {
+            return new FaceSelector.CumulativeAreas(faceAreas);
+        }
+    };
+
+    /**
+     * @param faceAreas the area of every face
+     * @return a new selector of the faces
+     */
+    public abstract FaceSelector createSelector(double[] faceAreas);
+}
@@ -0,0 +1,184 @@
+package retrieval;
+
+/**
+ * Picks faces of a mesh at random, each with a probability proportional to its area.
+ * <br/>
+ * The selectors are built once from the area of every face, and are then turned
+ * from a uniform random number into a face by {@link #selectFace(double)}.
+ * Use {@link FaceSelection} to choose one.
+ */
+public abstract class FaceSelector {
+    /** The total area of the faces. */
+    private final double _totalArea;
+
+    protected FaceSelector(double totalArea) {
+        _totalArea = totalArea;
+    }
+
+    /**
+     * @param random a uniform random number in [0, 1[
+     * @return the index of the selected face
+     */
+    public abstract int selectFace(double random);
+
+    public double getTotalArea() {
+        return _totalArea;
+    }
+
+    private static double sum(double[] faceAreas) {
+        double sum = 0.0;
+        for (double area : faceAreas) {
+            sum += area;
+        }
+        return sum;
+    }
+
+    /**
+     * Walker's alias method, as improved by Vose: every face gets a slot, holding a
+     * probability and an alias face, so that a random slot and one comparison select a face
+     * in constant time. The table is built in time linear in the number of faces and takes
+     * 12 bytes per face. Faces of a mesh without area are selected uniformly.
+     */
+    public static class AliasTable extends FaceSelector {
+        /** The probability that a slot selects its own face rather than its alias. */
+        private final double[] _probabilities;
+        /** The face selected by each slot otherwise. */
+        private final int[] _aliases;
+
+        public AliasTable(double[] faceAreas) {
+            super(sum(faceAreas));
+            final int n = faceAreas.length;
+            _probabilities = new double[n];
+            _aliases = new int[n];
+
+            // the faces below and above the average area, as stacks
+            final double scale = getTotalArea() > 0 ? n / getTotalArea() : 0.0;
+            int[] small = new int[n];
+            int[] large = new int[n];
+            int smallCount = 0;
+            int largeCount = 0;
+            for (int face = 0; face < n; face++) {
+                _probabilities[face] = getTotalArea() > 0 ? faceAreas[face] * scale : 1.0;
+                _aliases[face] = face;
+                if (_probabilities[face] < 1.0) {
+                    small[smallCount++] = face;
+                } else {
+                    large[largeCount++] = face;
+                }
+            }
+            // each small face fills the rest of its slot with a large one
+            while (smallCount > 0 && largeCount > 0) {
+                int less = small[--smallCount];
+                int more = large[largeCount - 1];
+                _aliases[less] = more;
+                _probabilities[more] = (_probabilities[more] + _probabilities[less]) - 1.0;
+                if (_probabilities[more] < 1.0) {
+                    largeCount--;
+                    small[smallCount++] = more;
+                }
+            }
+            // what is left is 1 up to rounding
+            while (largeCount > 0) {
+                _probabilities[large[--largeCount]] = 1.0;
+            }
+            while (smallCount > 0) {
+                _probabilities[small[--smallCount]] = 1.0;
+            }
+        }
+
+        @Override
+        public int selectFace(double random) {
+            // the integer part of random * n picks the slot, the fraction decides between face and alias
+            final double position = random * _probabilities.length;
+            int slot = (int) position;
+            if (slot >= _probabilities.length) {
+                slot = _probabilities.length - 1;
+            }
+            return position - slot < _probabilities[slot] ? slot : _aliases[slot];
+        }
+    }
+
+    /**
+     * A binary search over the cumulative areas of the faces, in logarithmic time.
+     * It takes 8 bytes per face, less than {@link AliasTable}.
+     */
+    public static class CumulativeAreas extends FaceSelector {
+        /** Array with the cumulative area for all the faces of the mesh. */
+        private final double[] _cumulativeFaceAreas;
+
+        public CumulativeAreas(double[] faceAreas) {
+            super(sum(faceAreas)); // the same sum, in the same order, as the last cumulative area
+            _cumulativeFaceAreas = cumulate(faceAreas);
+        }
+
+        private static double[] cumulate(double[] faceAreas) {
+            double[] cumulative = new double[faceAreas.length];
+            cumulative[0] = faceAreas[0];
+            for (int face = 1; face < cumulative.length; face++) {
+                cumulative[face] = cumulative[face-1] + faceAreas[face];
+            }
+            return cumulative;
+        }
+
+        /**
+         * @return the cumulative area of the faces, which must not be changed
+         */
+        double[] getCumulativeFaceAreas() {
+            return _cumulativeFaceAreas;
+        }
+
+        @Override
+        public int selectFace(double random) {
+            return searchFace(random * getTotalArea());
+        }
+
+        @SuppressWarnings("unused")
+        private int searchFaceLinear(double selector) {
+            /* This method does a linear search for the interval in which
+             *  selector belongs to.
+             * The intervals follow the pattern [left-bound right-bound[.
+             * The search is done on a ordered number array. Each element
+             *  of the array stores the right-bound of the interval with
+             *  the same index.
+             */
+            int i = 0;
+            while (i < _cumulativeFaceAreas.length
+                    && _cumulativeFaceAreas[i] < selector) {
+                i++;
+            }
+            if (i == _cumulativeFaceAreas.length)
+                return i - 1;
+            else
+                return i;
+        }
+
+        int searchFace(double selector) {
+            /* This method does a binary search for the interval in which
+             *  selector belongs to.
+             * The intervals follow the pattern [left-bound right-bound[.
+             * The search is done on a ordered number array. Each element
+             *  of the array stores the right-bound of the interval with
+             *  the same index.
+             */
+            // the cumulative areas array has the right-bounds for the face interval with the same index
+            // interval = [left-bound right-bound[
+            // selector E interval
+            int low = 0;
+            int high = _cumulativeFaceAreas.length;
+            while (high > low) {
+                int mid = low + (high-low)/2;
+                if ( selector >= _cumulativeFaceAreas[mid]) {//selector >= right-bound
+                    //search to the right of mid.
+                    low = mid+1;
+                } else if ( selector < (mid>0?_cumulativeFaceAreas[mid-1]:0.0)) {//selector < left-bound
+                    //search to the left of mid.
+                    high = mid-1;
+                } else {
+                    //selector is within the face's interval.
+                    return mid;
+                }
+            }
+            return low;
+        }
+    }
+}
@@ -11,13 +11,16 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 
 import javax.imageio.ImageIO;
 
 import thor.Model;
 import thor.graphics.Point3D;
 import thor.model.io.ModelIO;
-import thor.modelanalysis.utils.Normalize;
+import thor.model.io.ModelProbe;
 
 public class GenerateFeatureVectors {
     /**
@@ -33,7 +36,10 @@ public class GenerateFeatureVectors {
      * The default input directory is "./model-samples" and the default
      * output directory is "./results".
      * <br />
-     * Usage: GenerateFeatureVectors [input-directory output-directory]
+     * The points of every model are sampled with the same seed, 0 by default,
+     * so the same model and seed always give the same feature vector.
+     * <br />
+     * Usage: GenerateFeatureVectors [input-directory output-directory [seed]]
      * <br />
      * 
      * @throws IllegalArgumentException when can't load a model
@@ -47,7 +53,11 @@ public class GenerateFeatureVectors {
         //Get input directory path and output directory path.
         String inputDirectory;
         String outputDirectory;
+        long seed = 0;
         switch (args.length) {
+        case 3:
+            seed = Long.parseLong(args[2]);
+            //fall through
         case 2:
             inputDirectory = args[0];
             outputDirectory = args[1];
@@ -82,27 +92,47 @@ public class GenerateFeatureVectors {
         //Get paths every PLY file in the input directory.
         Path modelDir = Paths.get(inputDirectory);
         DirectoryStream<Path> dirStream = Files.newDirectoryStream(modelDir,"*.{ply}");
+        
+        //Probe the models and process the largest first, so that a model that 
+        //doesn't fit in memory is found before the small ones are done.
+        List<ModelProbe> probes = new ArrayList<ModelProbe>();
         for (Path modelPath : dirStream) {
+            probes.add(ModelIO.probe(modelPath.toFile()));
+        }
+        dirStream.close();
+        Collections.sort(probes, new Comparator<ModelProbe>() {
+            @Override
+            public int compare(ModelProbe a, ModelProbe b) {
+                return Long.compare(b.estimateCost(), a.estimateCost());
+            }
+        });
+        
+        for (ModelProbe probe : probes) {
+            Path modelPath = probe.getFile().toPath();
+            System.out.println(probe);
+            long freeMemory = Runtime.getRuntime().maxMemory() 
+                    - (Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory());
+            if (probe.estimateMemory() > freeMemory) {
+                System.out.println("Warning: "+modelPath.getFileName()+" may need about "
+                        +(probe.estimateMemory() >> 20)+" MB of the "+(freeMemory >> 20)+" MB available.");
+            }
             //Write model header in text output.
             outTextWriter.write("Model: "+modelPath.toString()+"\n");
             
             //Load model.
             Model model = ModelIO.read(modelPath.toFile());
             //Normalize model.
-            Normalize.translation(model);
-            Normalize.scale(model);
+            ModelNormalizer.normalize(model);
             
             //Compute point cloud. (with enough points for all shape functions)
             final int requiredPointNum = shapeFunctionSamples * 4;
-            UniformMeshSurfaceSampler sampler = new UniformMeshSurfaceSampler(model.getMeshes().get(0));
-            ArrayList<Point3D> points = new ArrayList<Point3D>(requiredPointNum);
-            for (int p = 0; p < requiredPointNum; p++) {
-                points.add(sampler.getPoint());
-            }
+            UniformMeshSurfaceSampler sampler = new UniformMeshSurfaceSampler(model.getMeshes().get(0), seed);
+            double[] points = new double[requiredPointNum * 3];
+            sampler.sampleParallel(requiredPointNum, points, 0);
             
             
             //Compute and output A3 histogram.
-            double[] a3Values = ShapeFunction.A3.computeValues(shapeFunctionSamples, points.toArray(new Point3D[0]));
+            double[] a3Values = ShapeFunction.A3.computeValues(shapeFunctionSamples, points);
             ShapeDistribution a3Distr = normMethod.createShapeDistribution(ShapeFunction.A3, shapeDistrBins, a3Values);
             outTextWriter.write("A3-"+normMethod.name()+":");
             dumpShapeDistrToWriterWithSamples(a3Distr,outTextWriter,shapeFunctionSamples);
@@ -111,13 +141,7 @@ public class GenerateFeatureVectors {
             ImageIO.write(img, "png", new File(outputDirectory+modelPath.getFileName().toString()+"-A3-"+normMethod.name()+"-"+".png"));
             
             //Compute and output D1 histogram.
-            Point3D barycenter = model.getBarycenter();
-            Point3D[] d1Points = new Point3D[shapeFunctionSamples*2];
-            for (int i = 0; i < shapeFunctionSamples; i++) {
-                d1Points[i*2] = barycenter;
-                d1Points[i*2+1] = points.get(i);
-            }
-            double[] d1Values = ShapeFunction.D2.computeValues(shapeFunctionSamples, d1Points);
+            double[] d1Values = distancesTo(model.getBarycenter(), shapeFunctionSamples, points);
             ShapeDistribution d1Distr = normMethod.createShapeDistribution(ShapeFunction.D2, shapeDistrBins, d1Values);
             outTextWriter.write("D1-"+normMethod.name()+":");
             dumpShapeDistrToWriterWithSamples(d1Distr,outTextWriter,shapeFunctionSamples);
@@ -126,7 +150,7 @@ public class GenerateFeatureVectors {
             ImageIO.write(img, "png", new File(outputDirectory+modelPath.getFileName().toString()+"-D1-"+normMethod.name()+"-"+".png"));
             
             //Compute and output D2 histogram.
-            double[] d2Values = ShapeFunction.D2.computeValues(shapeFunctionSamples, points.toArray(new Point3D[0]));
+            double[] d2Values = ShapeFunction.D2.computeValues(shapeFunctionSamples, points);
             ShapeDistribution d2Distr = normMethod.createShapeDistribution(ShapeFunction.D2, shapeDistrBins, d2Values);
             outTextWriter.write("D2-"+normMethod.name()+":");
             dumpShapeDistrToWriterWithSamples(d2Distr,outTextWriter,shapeFunctionSamples);
@@ -135,7 +159,7 @@ public class GenerateFeatureVectors {
             ImageIO.write(img, "png", new File(outputDirectory+modelPath.getFileName().toString()+"-D2-"+normMethod.name()+"-"+".png"));
             
             //Compute and output D3 histogram.
-            double[] d3Values = ShapeFunction.D3.computeValues(shapeFunctionSamples, points.toArray(new Point3D[0]));
+            double[] d3Values = ShapeFunction.D3.computeValues(shapeFunctionSamples, points);
             ShapeDistribution d3Distr = normMethod.createShapeDistribution(ShapeFunction.D3, shapeDistrBins, d3Values);
             outTextWriter.write("D3-"+normMethod.name()+":");
             dumpShapeDistrToWriterWithSamples(d3Distr,outTextWriter,shapeFunctionSamples);
@@ -144,7 +168,7 @@ public class GenerateFeatureVectors {
             ImageIO.write(img, "png", new File(outputDirectory+modelPath.getFileName().toString()+"-D3-"+normMethod.name()+"-"+".png"));
             
             //Compute and output D4 histogram.
-            double[] d4Values = ShapeFunction.D4.computeValues(shapeFunctionSamples, points.toArray(new Point3D[0]));
+            double[] d4Values = ShapeFunction.D4.computeValues(shapeFunctionSamples, points);
             ShapeDistribution d4Distr = normMethod.createShapeDistribution(ShapeFunction.D4, shapeDistrBins, d4Values);
             outTextWriter.write("D4-"+normMethod.name()+":");
             dumpShapeDistrToWriterWithSamples(d4Distr,outTextWriter,shapeFunctionSamples);
@@ -159,6 +183,17 @@ public class GenerateFeatureVectors {
         outTextWriter.close();
     }
     
+    /**
+     * @return the distances from the point to the first numValues points of xyz, as D2 computes them
+     */
+    private static double[] distancesTo(Point3D point, int numValues, double[] xyz) {
+        double[] distances = new double[numValues];
+        for (int i = 0; i < numValues; i++) {
+            distances[i] = Point3D.distance(point.getX(), point.getY(), point.getZ(), xyz[i*3], xyz[i*3+1], xyz[i*3+2]);
+        }
+        return distances;
+    }
+    
     private static void dumpShapeDistrToWriterWithSamples(ShapeDistribution shapeDistr, Writer writer, int samples) throws IOException {
         double samples_i = 1.0 / samples;
         for(Integer i: shapeDistr.getBins()) {
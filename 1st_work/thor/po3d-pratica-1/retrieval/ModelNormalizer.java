@@ -0,0 +1,59 @@
+package retrieval;
+
+import thor.Model;
+import thor.graphics.Point3D;
+import thor.model.geoset.AffineTransforms;
+import thor.model.geoset.Mesh;
+import thor.model.geoset.MeshGeometry;
+
+/**
+ * Normalizes the position and size of models before their shape distributions are computed,
+ * in place of the translation and scale of {@link thor.modelanalysis.utils.Normalize}.
+ * <br />
+ * The barycenter and the bounds are taken from a single (parallel) reduction over the
+ * first mesh (see {@link Mesh#getGeometry()}), as the model reports them, and the
+ * translation and scale are applied together in a single pass over the vertices of each
+ * mesh (see {@link Mesh#translateAndScale(double, double, double, double)}).
+ */
+public final class ModelNormalizer {
+
+    private ModelNormalizer() { }
+
+    /**
+     * Moves the barycenter of the model to the origin and scales the model so 
+     * that the largest side of its bounding box is 1.
+     * @param model the model to normalize
+     */
+    public static void normalize(Model model) {
+        MeshGeometry geometry = model.getMeshes().get(0).getGeometry();
+        Point3D barycenter = geometry.getBarycenter();
+        double factor = scaleFactor(geometry);
+        for (Mesh mesh : model.getMeshes()) {
+            mesh.translateAndScale(-barycenter.getX(), -barycenter.getY(), -barycenter.getZ(), factor);
+        }
+    }
+
+    /**
+     * Returns the transform {@link #normalize(Model)} applies, as a matrix of
+     * {@link AffineTransforms}, so further steps (a rotation, for instance) can be composed
+     * with it and the whole applied in a single pass with {@link Mesh#transform(double[])}.
+     * @param model the model to normalize
+     * @return the 4x4 matrix that translates and then scales the model
+     */
+    public static double[] getTransform(Model model) {
+        MeshGeometry geometry = model.getMeshes().get(0).getGeometry();
+        Point3D barycenter = geometry.getBarycenter();
+        return AffineTransforms.multiply(AffineTransforms.scaling(scaleFactor(geometry)),
+                AffineTransforms.translation(-barycenter.getX(), -barycenter.getY(), -barycenter.getZ()));
+    }
+
+    /**
+     * @return the inverse of the largest side of the bounding box, or 1 if the box is flat
+     */
+    private static double scaleFactor(MeshGeometry geometry) {
+        Point3D max = geometry.getMaxVertex();
+        Point3D min = geometry.getMinVertex();
+        double extent = Math.max(max.getX() - min.getX(), Math.max(max.getY() - min.getY(), max.getZ() - min.getZ()));
+        return extent > 0 ? 1.0 / extent : 1.0;
+    }
+}
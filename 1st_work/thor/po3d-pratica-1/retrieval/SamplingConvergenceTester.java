@@ -0,0 +1,124 @@
+package retrieval;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import thor.Model;
+import thor.model.geoset.Mesh;
+import thor.model.io.ModelIO;
+
+/**
+ * Measures how many samples each {@link SamplingMode} needs for the shape distributions
+ * of a model to be as close to the exact ones as a million random samples make them.
+ * <br />
+ * Usage: SamplingConvergenceTester model [reference samples]
+ * <br />
+ * The exact histograms are estimated from many random samples (16 million by default).
+ * For every mode and a range of sample counts, the L1 distance of the histograms to
+ * them (both normalized to sum 1, so it goes from 0 to 2) is averaged over a few runs.
+ * The target is the distance of random sampling with a million samples, the count that
+ * GenerateFeatureVectors takes; the smallest count that reaches it is printed for every mode.
+ */
+public class SamplingConvergenceTester {
+    private static final ShapeFunction[] FUNCTIONS = ShapeFunction.values();
+    private static final int BINS = 64;
+    private static final int RUNS = 4;
+    private static final int MAX_SAMPLES = 1000000;
+    private static final int MIN_SAMPLES = MAX_SAMPLES / 64;
+
+    public static void main(String[] args) throws IllegalArgumentException, IOException {
+        final String modelFilename = args[0];
+        final long referenceSamples = args.length > 1 ? Long.parseLong(args[1]) : 16000000L;
+
+        //Load and normalize model.
+        Model model = ModelIO.read(new File(modelFilename));
+        ModelNormalizer.normalize(model);
+        Mesh mesh = model.getMeshes().get(0);
+        UniformMeshSurfaceSampler sampler = new UniformMeshSurfaceSampler(mesh, 1);
+        double[] points = new double[MAX_SAMPLES * 4 * 3];
+
+        //Estimate the exact histograms, a million samples at a time.
+        long start = System.nanoTime();
+        long[][] referenceCounts = new long[FUNCTIONS.length][BINS];
+        for (long done = 0; done < referenceSamples; done += MAX_SAMPLES) {
+            final int samples = (int) Math.min(MAX_SAMPLES, referenceSamples - done);
+            sampler.sample(samples * 4, points, 0, SamplingMode.RANDOM);
+            for (int f = 0; f < FUNCTIONS.length; f++) {
+                List<Integer> bins = distribution(FUNCTIONS[f], samples, points).getBins();
+                for (int bin = 0; bin < BINS; bin++) {
+                    referenceCounts[f][bin] += bins.get(bin);
+                }
+            }
+        }
+        double[][] reference = new double[FUNCTIONS.length][BINS];
+        for (int f = 0; f < FUNCTIONS.length; f++) {
+            for (int bin = 0; bin < BINS; bin++) {
+                reference[f][bin] = referenceCounts[f][bin] / (double) referenceSamples;
+            }
+        }
+        System.out.println("Reference: " + referenceSamples + " samples in " + (System.nanoTime() - start) / 1000000 + " ms");
+
+        //Measure the distance of every mode at every count.
+        final SamplingMode[] modes = SamplingMode.values();
+        int counts = 0;
+        for (int samples = MAX_SAMPLES; samples >= MIN_SAMPLES; samples /= 2) {
+            counts++;
+        }
+        double[][][] distances = new double[modes.length][FUNCTIONS.length][counts];
+        for (int m = 0; m < modes.length; m++) {
+            for (int c = 0, samples = MAX_SAMPLES; c < counts; c++, samples /= 2) {
+                for (int run = 0; run < RUNS; run++) {
+                    sampler.sample(samples * 4, points, 0, modes[m]);
+                    for (int f = 0; f < FUNCTIONS.length; f++) {
+                        distances[m][f][c] += distance(histogram(FUNCTIONS[f], samples, points), reference[f]) / RUNS;
+                    }
+                }
+            }
+        }
+
+        //Print them, with the count that reaches the distance of a million random samples.
+        for (int f = 0; f < FUNCTIONS.length; f++) {
+            final double target = distances[SamplingMode.RANDOM.ordinal()][f][0];
+            System.out.printf("%s (target %.4f):%n", FUNCTIONS[f], target);
+            for (int m = 0; m < modes.length; m++) {
+                StringBuilder line = new StringBuilder();
+                int needed = MAX_SAMPLES * 2;
+                for (int c = 0, samples = MAX_SAMPLES; c < counts; c++, samples /= 2) {
+                    line.append(String.format(" %d:%.4f", samples, distances[m][f][c]));
+                    if (distances[m][f][c] <= target && needed == samples * 2) {
+                        needed = samples;
+                    }
+                }
+                System.out.printf("  %-11s%s -> %s%n", modes[m], line,
+                        needed <= MAX_SAMPLES ? needed + " samples" : "more than " + MAX_SAMPLES + " samples");
+            }
+        }
+    }
+
+    private static ShapeDistribution distribution(ShapeFunction function, int samples, double[] points) {
+        ShapeDistribution distr = new ShapeDistribution(BINS, function.getMinBoundary(), function.getMaxBoundary());
+        distr.addSamples(function.computeValues(samples, points));
+        return distr;
+    }
+
+    /**
+     * @return the histogram of the shape function over the points, normalized to sum 1
+     */
+    private static double[] histogram(ShapeFunction function, int samples, double[] points) {
+        List<Integer> counts = distribution(function, samples, points).getBins();
+        double[] histogram = new double[BINS];
+        for (int bin = 0; bin < BINS; bin++) {
+            histogram[bin] = counts.get(bin) / (double) samples;
+        }
+        return histogram;
+    }
+
+    private static double distance(double[] a, double[] b) {
+        double sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += Math.abs(a[i] - b[i]);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,29 @@
+package retrieval;
+
+/**
+ * Enumeration of the ways {@link UniformMeshSurfaceSampler#sample(int, double[], int, SamplingMode)}
+ * can spread its points over the surface.
+ * <br/>
+ * The points of every mode are uniform over the surface. The modes other than {@link #RANDOM}
+ * spread each set of points more evenly, so that histograms made from them get closer to
+ * those of the surface with fewer points. Their points are given in a random order, so
+ * consecutive points can be taken together as independent ones, as the shape functions do.
+ */
+public enum SamplingMode {
+    /**
+     * Independent random points, as {@link UniformMeshSurfaceSampler#getPoint()} gets them.
+     */
+    RANDOM,
+    /**
+     * Points from a scrambled Sobol sequence: its first dimension selects the face,
+     * the other two the point on the face.
+     */
+    SOBOL,
+    /**
+     * Random points on each face, as many as its share of the total area, as
+     * {@link UniformMeshSurfaceSampler#getPoints(int)} takes them. The fractions of a
+     * point left over are given to faces by a systematic sample, so that exactly the
+     * points asked for are taken.
+     */
+    STRATIFIED
+}
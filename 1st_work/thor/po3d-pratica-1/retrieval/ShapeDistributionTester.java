@@ -10,7 +10,6 @@ import javax.imageio.ImageIO;
 import thor.Model;
 import thor.graphics.Point3D;
 import thor.model.io.ModelIO;
-import thor.modelanalysis.utils.Normalize;
 
 public class ShapeDistributionTester {
 
@@ -23,8 +22,7 @@ public class ShapeDistributionTester {
         
         //Load and normalize model.
         Model model = ModelIO.read(new File(modelFilename));
-        Normalize.translation(model);
-        Normalize.scale(model);
+        ModelNormalizer.normalize(model);
         
         //Compute necessary points.
         final int requiredPointNum = shapeFunctionSamples * 2;
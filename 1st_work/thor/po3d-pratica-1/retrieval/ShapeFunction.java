@@ -24,6 +24,28 @@ public enum ShapeFunction {
             }
             return results;
         }
+        
+        @Override
+        public double[] computeValues(int numValues, double[] xyz) {
+            assert xyz.length >= numValues * 9;
+            double[] results = new double[numValues];
+            for (int i=0; i<numValues; i++) {
+                final int p0 = i*9, p1 = p0+3, p2 = p0+6;
+                double x1 = xyz[p1]-xyz[p0], y1 = xyz[p1+1]-xyz[p0+1], z1 = xyz[p1+2]-xyz[p0+2];
+                double x2 = xyz[p2]-xyz[p0], y2 = xyz[p2+1]-xyz[p0+1], z2 = xyz[p2+2]-xyz[p0+2];
+                // as Vector3D.normalize(), which rounds the length to a float
+                final float length1 = (float) Math.sqrt(x1*x1 + y1*y1 + z1*z1);
+                if (length1 > 0) {
+                    x1 /= length1; y1 /= length1; z1 /= length1;
+                }
+                final float length2 = (float) Math.sqrt(x2*x2 + y2*y2 + z2*z2);
+                if (length2 > 0) {
+                    x2 /= length2; y2 /= length2; z2 /= length2;
+                }
+                results[i] = x1*x2 + y1*y2 + z1*z2;
+            }
+            return results;
+        }
 
         @Override
         public double getMinBoundary() { return -1.0; }
@@ -50,6 +72,17 @@ public enum ShapeFunction {
             return results;
         }
         
+        @Override
+        public double[] computeValues(int numValues, double[] xyz) {
+            assert xyz.length >= numValues * 6;
+            double[] results = new double[numValues];
+            for (int i=0; i<numValues; i++) {
+                final int p0 = i*6, p1 = p0+3;
+                results[i] = Point3D.distance(xyz[p0], xyz[p0+1], xyz[p0+2], xyz[p1], xyz[p1+1], xyz[p1+2]);
+            }
+            return results;
+        }
+        
         @Override
         public double getMinBoundary() { return 0.0; }
 
@@ -77,6 +110,22 @@ public enum ShapeFunction {
             return results;
         }
         
+        @Override
+        public double[] computeValues(int numValues, double[] xyz) {
+            assert xyz.length >= numValues * 9;
+            double[] results = new double[numValues];
+            for (int i=0; i<numValues; i++) {
+                final int p1 = i*9, p2 = p1+3, p3 = p1+6;
+                // Heron's formula, as Mesh.heronFormula(v1, v2, v3)
+                final double a = Point3D.distance(xyz[p1], xyz[p1+1], xyz[p1+2], xyz[p2], xyz[p2+1], xyz[p2+2]);
+                final double b = Point3D.distance(xyz[p2], xyz[p2+1], xyz[p2+2], xyz[p3], xyz[p3+1], xyz[p3+2]);
+                final double c = Point3D.distance(xyz[p3], xyz[p3+1], xyz[p3+2], xyz[p1], xyz[p1+1], xyz[p1+2]);
+                final double s = (a+b+c)*0.5;
+                results[i] = Math.sqrt(Math.sqrt(s*(s-a)*(s-b)*(s-c)));
+            }
+            return results;
+        }
+        
         @Override
         public double getMinBoundary() { return 0.0; }
 
@@ -105,6 +154,22 @@ public enum ShapeFunction {
             return results;
         }
         
+        @Override
+        public double[] computeValues(int numValues, double[] xyz) {
+            assert xyz.length >= numValues * 12;
+            double[] results = new double[numValues];
+            for (int i=0; i<numValues; i++) {
+                final int pa = i*12, pb = pa+3, pc = pa+6, pd = pa+9;
+                final double ax = xyz[pa]-xyz[pd], ay = xyz[pa+1]-xyz[pd+1], az = xyz[pa+2]-xyz[pd+2];
+                final double bx = xyz[pb]-xyz[pd], by = xyz[pb+1]-xyz[pd+1], bz = xyz[pb+2]-xyz[pd+2];
+                final double cx = xyz[pc]-xyz[pd], cy = xyz[pc+1]-xyz[pd+1], cz = xyz[pc+2]-xyz[pd+2];
+                // a . (b x c), as Vector3D.product and DotProduct3
+                final double vol = Math.abs(ax*(by*cz - bz*cy) + ay*(bz*cx - bx*cz) + az*(bx*cy - by*cx))/6.0;
+                results[i] = Math.cbrt(vol);
+            }
+            return results;
+        }
+        
         @Override
         public double getMinBoundary() { return 0.0; }
 
@@ -119,6 +184,16 @@ public enum ShapeFunction {
 
     public abstract double[] computeValues(int numValues, Point3D[] points);
     
+    /**
+     * Computes the same values as {@link #computeValues(int, Point3D[])} from
+     *  the coordinates of the points, x, y and z of each in turn, as
+     *  {@link UniformMeshSurfaceSampler#sample(int, double[], int)} writes them.
+     * @param numValues the number of values
+     * @param xyz the coordinates of at least numValues * {@link #getPointsPerValue()} points
+     * @return the values
+     */
+    public abstract double[] computeValues(int numValues, double[] xyz);
+    
     public abstract double getMaxBoundary();
     
     public abstract double getMinBoundary();
@@ -9,7 +9,6 @@ import javax.imageio.ImageIO;
 import thor.Model;
 import thor.graphics.Point3D;
 import thor.model.io.ModelIO;
-import thor.modelanalysis.utils.Normalize;
 
 public class ShapeFunctionTester {
     public static void main(String[] args) throws IllegalArgumentException, IOException {
@@ -24,8 +23,7 @@ public class ShapeFunctionTester {
         
         //Load and normalize model.
         Model model = ModelIO.read(new File(modelFilename));
-        Normalize.translation(model);
-        Normalize.scale(model);
+        ModelNormalizer.normalize(model);
         
         /*
          * Procedure for each test:
@@ -5,23 +5,55 @@ import java.util.List;
 
 import thor.graphics.Point3D;
 import thor.model.geoset.Face;
+import thor.model.geoset.IndexedTriangleMesh;
 import thor.model.geoset.Mesh;
 import thor.model.geoset.Vertex;
+import thor.util.Parallel;
+import thor.util.RandomStream;
+import thor.util.SobolSequence;
 
 /**
  * Class for objects that uniformly sample points of a mesh's surface.
  * It is assumed that the mesh's surface is only composed by triangle faces.
+ * <br/>
+ * A sampler made with a seed always gives the same points. A sampler is not
+ * thread safe; threads should each {@link #split()} their own.
+ * <br/>
+ * Large numbers of points are best taken with the sample methods, which write
+ * the coordinates straight into arrays of the caller and allocate nothing per point.
  * 
  * @author Pedro-170
  *
  */
 public class UniformMeshSurfaceSampler {
+    /** The number of points of each block of {@link #sampleParallel(int, double[], int)}. */
+    private static final int BLOCK_SIZE = 1 << 14;
+    
     /** The total area of the mesh */
     private final double _meshTotalArea;
-    /** Array with the cumulative area for all the faces of the mesh. */
-    private final double[] _cumulativeFaceAreas;
+    /** Selects the face of each point, with a probability proportional to its area. */
+    private final FaceSelector _faceSelector;
     /** The mesh from which the samples are taken. */
     private final Mesh _mesh;
+    /** The random numbers of the samples. */
+    private final RandomStream _random;
+    /** The coordinates of the mesh's vertices, x, y and z of each in turn. */
+    private final double[] _xyz;
+    /** The first three vertices of each face of the mesh. */
+    private final int[] _triangles;
+    
+    /**
+     * Receives the points of {@link UniformMeshSurfaceSampler#sample(long, double[], ChunkConsumer)}
+     * a chunk at a time.
+     */
+    public interface ChunkConsumer {
+        /**
+         * @param xyz the buffer given to the sampler, with x, y and z of each point of the chunk in turn.
+         *  It is overwritten by the next chunk.
+         * @param count the number of points of the chunk
+         */
+        void accept(double[] xyz, int count);
+    }
     
     private double getFaceArea(int face) {
         return _mesh.triangleArea(_mesh.getFaces().get(face));
@@ -29,70 +61,106 @@ public class UniformMeshSurfaceSampler {
     
     /**
      * Constructs an {@link UniformMeshSurfaceSampler} for the
-     * given {@link Mesh}.
+     * given {@link Mesh}, selecting faces with an alias table.
+     * The points differ from one sampler to the next.
      * @param mesh the mesh whose surface will be sampled
      */
     public UniformMeshSurfaceSampler(Mesh mesh) {
+        this(mesh, FaceSelection.ALIAS, new RandomStream());
+    }
+    
+    /**
+     * Constructs an {@link UniformMeshSurfaceSampler} for the
+     * given {@link Mesh}, selecting faces with an alias table.
+     * The same mesh and seed always give the same points.
+     * @param mesh the mesh whose surface will be sampled
+     * @param seed the seed of the random numbers
+     */
+    public UniformMeshSurfaceSampler(Mesh mesh, long seed) {
+        this(mesh, FaceSelection.ALIAS, new RandomStream(seed));
+    }
+    
+    /**
+     * Constructs an {@link UniformMeshSurfaceSampler} for the
+     * given {@link Mesh}. The points differ from one sampler to the next.
+     * @param mesh the mesh whose surface will be sampled
+     * @param faceSelection how the face of each point is selected
+     */
+    public UniformMeshSurfaceSampler(Mesh mesh, FaceSelection faceSelection) {
+        this(mesh, faceSelection, new RandomStream());
+    }
+    
+    /**
+     * Constructs an {@link UniformMeshSurfaceSampler} for the
+     * given {@link Mesh}. The same mesh, face selection and seed always give the same points.
+     * @param mesh the mesh whose surface will be sampled
+     * @param faceSelection how the face of each point is selected
+     * @param seed the seed of the random numbers
+     */
+    public UniformMeshSurfaceSampler(Mesh mesh, FaceSelection faceSelection, long seed) {
+        this(mesh, faceSelection, new RandomStream(seed));
+    }
+    
+    private UniformMeshSurfaceSampler(Mesh mesh, FaceSelection faceSelection, RandomStream random) {
         // This assumes that mesh will not explode. :)
         _mesh = mesh;
-        _cumulativeFaceAreas = new double[_mesh.countFaces()];
-        
-        _cumulativeFaceAreas[0] = getFaceArea(0);
-        for (int face = 1; face < _cumulativeFaceAreas.length; face++) {
-            _cumulativeFaceAreas[face] = _cumulativeFaceAreas[face-1] + getFaceArea(face);
+        double[] faceAreas = new double[_mesh.countFaces()];
+        for (int face = 0; face < faceAreas.length; face++) {
+            faceAreas[face] = getFaceArea(face);
+        }
+        _faceSelector = faceSelection.createSelector(faceAreas);
+        _meshTotalArea = _faceSelector.getTotalArea();
+        _random = random;
+        if (_mesh instanceof IndexedTriangleMesh) {
+            _xyz = ((IndexedTriangleMesh) _mesh).getCoordinates();
+            _triangles = ((IndexedTriangleMesh) _mesh).getTriangles();
+        } else {
+            _xyz = coordinates(_mesh);
+            _triangles = triangles(_mesh);
         }
-
-        _meshTotalArea = _cumulativeFaceAreas[_cumulativeFaceAreas.length-1];
     }
-
     
-    @SuppressWarnings("unused")
-    private int searchFaceLinear(double selector) {
-        /* This method does a linear search for the interval in which
-         *  selector belongs to.
-         * The intervals follow the pattern [left-bound right-bound[.
-         * The search is done on a ordered number array. Each element
-         *  of the array stores the right-bound of the interval with
-         *  the same index.
-         */
-        int i = 0;
-        while (i < _cumulativeFaceAreas.length
-                && _cumulativeFaceAreas[i] < selector) {
-            i++;
+    private UniformMeshSurfaceSampler(UniformMeshSurfaceSampler sampler, RandomStream random) {
+        _mesh = sampler._mesh;
+        _faceSelector = sampler._faceSelector;
+        _meshTotalArea = sampler._meshTotalArea;
+        _random = random;
+        _xyz = sampler._xyz;
+        _triangles = sampler._triangles;
+    }
+    
+    private static double[] coordinates(Mesh mesh) {
+        final List<Vertex> vertices = mesh.getVertices();
+        double[] xyz = new double[vertices.size() * 3];
+        for (int v = 0; v < vertices.size(); v++) {
+            final Vertex vertex = vertices.get(v);
+            xyz[v*3] = vertex.getX();
+            xyz[v*3+1] = vertex.getY();
+            xyz[v*3+2] = vertex.getZ();
         }
-        if (i == _cumulativeFaceAreas.length)
-            return i - 1;
-        else
-            return i;
-    }
-    
-    private int searchFace(double selector) {
-        /* This method does a binary search for the interval in which
-         *  selector belongs to.
-         * The intervals follow the pattern [left-bound right-bound[.
-         * The search is done on a ordered number array. Each element
-         *  of the array stores the right-bound of the interval with
-         *  the same index.
-         */
-        // the cumulative areas array has the right-bounds for the face interval with the same index
-        // interval = [left-bound right-bound[
-        // selector E interval
-        int low = 0;
-        int high = _cumulativeFaceAreas.length;
-        while (high > low) {
-            int mid = low + (high-low)/2;
-            if ( selector >= _cumulativeFaceAreas[mid]) {//selector >= right-bound
-                //search to the right of mid.
-                low = mid+1;
-            } else if ( selector < (mid>0?_cumulativeFaceAreas[mid-1]:0.0)) {//selector < left-bound
-                //search to the left of mid.
-                high = mid-1;
-            } else {
-                //selector is within the face's interval.
-                return mid;
-            }
+        return xyz;
+    }
+    
+    private static int[] triangles(Mesh mesh) {
+        final List<Face> faces = mesh.getFaces();
+        int[] triangles = new int[faces.size() * 3];
+        for (int f = 0; f < faces.size(); f++) {
+            final List<Integer> vertices = faces.get(f).Vertices;
+            triangles[f*3] = vertices.get(0);
+            triangles[f*3+1] = vertices.get(1);
+            triangles[f*3+2] = vertices.get(2);
         }
-        return low;
+        return triangles;
+    }
+    
+    /**
+     * Get a new sampler of the same mesh, sharing this one's face selection, whose
+     * random numbers are split off this one's. Each thread that samples the mesh
+     * should use its own sampler, as a sampler is not thread safe.
+     * @return the new sampler
+     */
+    public UniformMeshSurfaceSampler split() {
+        return new UniformMeshSurfaceSampler(this, _random.split());
     }
     
     /**
@@ -125,9 +193,196 @@ public class UniformMeshSurfaceSampler {
      * @return a new random point on the mesh's surface
      */
     public Point3D getPoint() {
-        double faceSelectorNumber = Math.random() * _meshTotalArea;
-        int selectedFace = searchFace(faceSelectorNumber);
-        return uniformTrianglePoint(_mesh.getFaces().get(selectedFace),Math.random(),Math.random());
+        double[] xyz = new double[3];
+        samplePoint(xyz, 0);
+        return new Point3D.Double(xyz[0], xyz[1], xyz[2]);
+    }
+    
+    /**
+     * Writes a random point of the mesh's surface, as {@link #getPoint()} would get it,
+     *  to xyz[offset], xyz[offset+1] and xyz[offset+2].
+     */
+    private void samplePoint(double[] xyz, int offset) {
+        final int face = _faceSelector.selectFace(_random.nextDouble());
+        final double r1 = _random.nextDouble();
+        final double r2 = _random.nextDouble();
+        trianglePoint(face, r1, r2, xyz, offset);
+    }
+    
+    /**
+     * Writes the point of the face with coordinates r1 and r2, as
+     *  {@link #uniformTrianglePoint(Face, double, double)} gets it,
+     *  to xyz[offset], xyz[offset+1] and xyz[offset+2].
+     */
+    private void trianglePoint(int face, double r1, double r2, double[] xyz, int offset) {
+        final int t = face * 3;
+        final int v0 = _triangles[t] * 3;
+        final int v1 = _triangles[t+1] * 3;
+        final int v2 = _triangles[t+2] * 3;
+        final double r1_sqrt = Math.sqrt(r1);
+        final double a = 1-r1_sqrt;
+        final double b = r1_sqrt*(1-r2);
+        final double c = r1_sqrt*r2;
+        xyz[offset] = _xyz[v0]*a+_xyz[v1]*b+_xyz[v2]*c;
+        xyz[offset+1] = _xyz[v0+1]*a+_xyz[v1+1]*b+_xyz[v2+1]*c;
+        xyz[offset+2] = _xyz[v0+2]*a+_xyz[v1+2]*b+_xyz[v2+2]*c;
+    }
+    
+    /**
+     * Writes n random points of the mesh's surface into xyzOut, x, y and z of each
+     *  in turn from xyzOut[offset]. These are the points that n calls to
+     *  {@link #getPoint()} would get, without an object for each.
+     * @param n the number of points
+     * @param xyzOut the array of the coordinates, of at least offset + 3*n elements
+     * @param offset the index of the first point's x
+     */
+    public void sample(int n, double[] xyzOut, int offset) {
+        checkBuffer(n, xyzOut.length, offset, 3);
+        for (int p = 0; p < n; p++) {
+            samplePoint(xyzOut, offset + p*3);
+        }
+    }
+    
+    /**
+     * Writes n random points of the mesh's surface into separate arrays for
+     *  each coordinate, from index offset. These are the points that n calls to
+     *  {@link #getPoint()} would get, without an object for each.
+     * @param n the number of points
+     * @param x the array of the x coordinates, of at least offset + n elements
+     * @param y the array of the y coordinates, likewise
+     * @param z the array of the z coordinates, likewise
+     * @param offset the index of the first point
+     */
+    public void sample(int n, double[] x, double[] y, double[] z, int offset) {
+        checkBuffer(n, Math.min(x.length, Math.min(y.length, z.length)), offset, 1);
+        double[] point = new double[3];
+        for (int p = offset; p < offset + n; p++) {
+            samplePoint(point, 0);
+            x[p] = point[0];
+            y[p] = point[1];
+            z[p] = point[2];
+        }
+    }
+    
+    /**
+     * Takes n random points of the mesh's surface a chunk at a time, for more points
+     *  than fit in memory at once. Each chunk is written into the same buffer, as
+     *  {@link #sample(int, double[], int)} does, and given to the consumer.
+     * @param n the number of points
+     * @param buffer the array the chunks are written into; it holds buffer.length/3 points
+     * @param consumer receives each chunk
+     */
+    public void sample(long n, double[] buffer, ChunkConsumer consumer) {
+        final int chunkSize = buffer.length / 3;
+        if (n < 0 || (n > 0 && chunkSize == 0))
+            throw new IllegalArgumentException("UniformMeshSurfaceSampler: invalid number of points or buffer size");
+        for (long done = 0; done < n; ) {
+            final int count = (int) Math.min(chunkSize, n - done);
+            sample(count, buffer, 0);
+            consumer.accept(buffer, count);
+            done += count;
+        }
+    }
+    
+    /**
+     * Writes n random points of the mesh's surface into xyzOut as
+     *  {@link #sample(int, double[], int)} does, using the threads of {@link Parallel}.
+     * <br/>
+     * The points are split in blocks of a fixed size, each with its own random
+     *  numbers, numbered from one seed taken from this sampler's. So a seeded
+     *  sampler gives the same points whatever the number of threads, though not
+     *  the same as {@link #sample(int, double[], int)}.
+     * @param n the number of points
+     * @param xyzOut the array of the coordinates, of at least offset + 3*n elements
+     * @param offset the index of the first point's x
+     */
+    public void sampleParallel(final int n, final double[] xyzOut, final int offset) {
+        checkBuffer(n, xyzOut.length, offset, 3);
+        final long seed = _random.nextLong();
+        final int blocks = (int) ((n + (long) BLOCK_SIZE - 1) / BLOCK_SIZE);
+        Parallel.forRange(0, blocks, 1, new Parallel.RangeTask() {
+            public void run(int from, int to) {
+                for (int block = from; block < to; block++) {
+                    UniformMeshSurfaceSampler sampler = new UniformMeshSurfaceSampler(
+                            UniformMeshSurfaceSampler.this, new RandomStream(seed, block));
+                    final int first = block * BLOCK_SIZE;
+                    sampler.sample(Math.min(BLOCK_SIZE, n - first), xyzOut, offset + first*3);
+                }
+            }
+        });
+    }
+    
+    /**
+     * Writes n points of the mesh's surface into xyzOut as {@link #sample(int, double[], int)}
+     *  does, spread over the surface as the mode says. The points of a mode other than
+     *  {@link SamplingMode#RANDOM} only spread evenly together, and are shuffled.
+     * @param n the number of points
+     * @param xyzOut the array of the coordinates, of at least offset + 3*n elements
+     * @param offset the index of the first point's x
+     * @param mode how the points are spread
+     */
+    public void sample(int n, double[] xyzOut, int offset, SamplingMode mode) {
+        switch (mode) {
+        case RANDOM:
+            sample(n, xyzOut, offset);
+            return;
+        case SOBOL:
+            checkBuffer(n, xyzOut.length, offset, 3);
+            SobolSequence sobol = new SobolSequence(3, _random);
+            for (int p = 0; p < n; p++) {
+                final int face = _faceSelector.selectFace(sobol.get(p, 0));
+                trianglePoint(face, sobol.get(p, 1), sobol.get(p, 2), xyzOut, offset + p*3);
+            }
+            break;
+        case STRATIFIED:
+            checkBuffer(n, xyzOut.length, offset, 3);
+            sampleStratified(n, xyzOut, offset);
+            break;
+        }
+        shuffle(n, xyzOut, offset);
+    }
+    
+    private void sampleStratified(int n, double[] xyz, int offset) {
+        int p = 0;
+        if (_meshTotalArea > 0) {
+            final double pointsPerArea = n / _meshTotalArea;
+            // each face gets the whole part of its share, and a point each time the fractions add up to one more
+            double fractions = _random.nextDouble();
+            for (int face = 0; face < _triangles.length / 3 && p < n; face++) {
+                final double share = getFaceArea(face) * pointsPerArea;
+                int count = (int) share;
+                fractions += share - count;
+                if (fractions >= 1.0) {
+                    fractions -= 1.0;
+                    count++;
+                }
+                for (int s = 0; s < count && p < n; s++, p++) {
+                    trianglePoint(face, _random.nextDouble(), _random.nextDouble(), xyz, offset + p*3);
+                }
+            }
+        }
+        // a point that rounding left out, or all of them for a mesh without area
+        for (; p < n; p++) {
+            samplePoint(xyz, offset + p*3);
+        }
+    }
+    
+    /** Puts the n points from xyz[offset] in a random order. */
+    private void shuffle(int n, double[] xyz, int offset) {
+        for (int p = n - 1; p > 0; p--) {
+            final int i = offset + p*3;
+            final int j = offset + _random.nextInt(p + 1)*3;
+            for (int k = 0; k < 3; k++) {
+                final double swap = xyz[i+k];
+                xyz[i+k] = xyz[j+k];
+                xyz[j+k] = swap;
+            }
+        }
+    }
+    
+    private static void checkBuffer(int n, int length, int offset, int stride) {
+        if (n < 0 || offset < 0 || offset + (long) n * stride > length)
+            throw new IllegalArgumentException("UniformMeshSurfaceSampler: the points do not fit in the array");
     }
     
     /**
@@ -145,7 +400,7 @@ public class UniformMeshSurfaceSampler {
             final double triArea = _mesh.triangleArea(_mesh.getFaces().get(face));
             final int triSamples = (int)((triArea/_meshTotalArea) * numSamples + 0.5);
             for(int s=0; s<triSamples; ++s) {
-                samples.add(uniformTrianglePoint(f, Math.random(), Math.random()));
+                samples.add(uniformTrianglePoint(f, _random.nextDouble(), _random.nextDouble()));
             }
         }
         return samples;
@@ -157,9 +412,11 @@ public class UniformMeshSurfaceSampler {
      */
     public static void main(String[] args) {
         MeshMock mock = new MeshMock();
-        UniformMeshSurfaceSampler sampler = new UniformMeshSurfaceSampler(mock);
-        for (int i=0; i<sampler._cumulativeFaceAreas.length; ++i) {
-            System.out.print(sampler._cumulativeFaceAreas[i]+", ");
+        UniformMeshSurfaceSampler uniformSampler = new UniformMeshSurfaceSampler(mock, FaceSelection.BINARY_SEARCH);
+        FaceSelector.CumulativeAreas sampler = (FaceSelector.CumulativeAreas) uniformSampler._faceSelector;
+        double[] cumulativeFaceAreas = sampler.getCumulativeFaceAreas();
+        for (int i=0; i<cumulativeFaceAreas.length; ++i) {
+            System.out.print(cumulativeFaceAreas[i]+", ");
         }
         System.out.println();
         System.out.println(sampler.searchFace(0));
@@ -182,21 +439,20 @@ public class UniformMeshSurfaceSampler {
  *
  */
 class MeshMock extends Mesh {
+    MeshMock() {
+        getVertices().add(new Vertex(0, 0, 0));
+        getVertices().add(new Vertex(1, 0, 0));
+        getVertices().add(new Vertex(0, 1, 0));
+        for (int f = 0; f < 4; f++) {
+            Face face = new Face();
+            face.Vertices.add(0);
+            face.Vertices.add(1);
+            face.Vertices.add(2);
+            getFaces().add(face);
+        }
+    }
     @Override
     public double triangleArea(Face f) {
         return 0.5;
     }
-    @Override
-    public List<Face> getFaces() {
-        ArrayList<Face> fs = new ArrayList<Face>();
-        fs.add(null);
-        fs.add(null);
-        fs.add(null);
-        fs.add(null);
-        return fs;
-    }
-    @Override
-    public int countFaces() {
-        return 4;
-    }
 }
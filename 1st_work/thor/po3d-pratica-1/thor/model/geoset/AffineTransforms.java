@@ -0,0 +1,185 @@
+package thor.model.geoset;
+
+/**
+ * Builds and applies affine transforms given as 4x4 matrices, in a double[16] in row
+ * order: the point (x, y, z) becomes (m[0]x + m[1]y + m[2]z + m[3], m[4]x + ..., m[8]x + ...),
+ * and the last row is always 0, 0, 0, 1.
+ * <br />
+ * Several steps are composed with {@link #multiply(double[], double[])} into a single
+ * matrix, which {@link Mesh#transform(double[])} then applies in one pass over the mesh.
+ * Normals are transformed by the inverse-transpose of the upper 3x3 part of the matrix, so
+ * they stay perpendicular to the surface under any scale or shear, and are renormalized.
+ */
+public final class AffineTransforms {
+
+	private AffineTransforms() { }
+
+	public static double[] identity() {
+		return new double[] {
+			1, 0, 0, 0,
+			0, 1, 0, 0,
+			0, 0, 1, 0,
+			0, 0, 0, 1 };
+	}
+
+	/**
+	 * @return
+	 * The matrix that moves every point a (x, y, z) distance.
+	 */
+	public static double[] translation(double x, double y, double z) {
+		return new double[] {
+			1, 0, 0, x,
+			0, 1, 0, y,
+			0, 0, 1, z,
+			0, 0, 0, 1 };
+	}
+
+	/**
+	 * @return
+	 * The matrix that scales every point by the factor, from the origin.
+	 */
+	public static double[] scaling(double factor) {
+		return scaling(factor, factor, factor);
+	}
+
+	public static double[] scaling(double x, double y, double z) {
+		return new double[] {
+			x, 0, 0, 0,
+			0, y, 0, 0,
+			0, 0, z, 0,
+			0, 0, 0, 1 };
+	}
+
+	/**
+	 * @return
+	 * The matrix that rotates every point around the X axis, from Y towards Z.
+	 * @param angle - the angle in radians
+	 */
+	public static double[] rotationX(double angle) {
+		double cos = Math.cos(angle), sin = Math.sin(angle);
+		return new double[] {
+			1, 0, 0, 0,
+			0, cos, -sin, 0,
+			0, sin, cos, 0,
+			0, 0, 0, 1 };
+	}
+
+	/**
+	 * @return
+	 * The matrix that rotates every point around the Y axis, from Z towards X.
+	 * @param angle - the angle in radians
+	 */
+	public static double[] rotationY(double angle) {
+		double cos = Math.cos(angle), sin = Math.sin(angle);
+		return new double[] {
+			cos, 0, sin, 0,
+			0, 1, 0, 0,
+			-sin, 0, cos, 0,
+			0, 0, 0, 1 };
+	}
+
+	/**
+	 * @return
+	 * The matrix that rotates every point around the Z axis, from X towards Y.
+	 * @param angle - the angle in radians
+	 */
+	public static double[] rotationZ(double angle) {
+		double cos = Math.cos(angle), sin = Math.sin(angle);
+		return new double[] {
+			cos, -sin, 0, 0,
+			sin, cos, 0, 0,
+			0, 0, 1, 0,
+			0, 0, 0, 1 };
+	}
+
+	/**
+	 * @return
+	 * The product a * b: the transform that applies b first and then a.
+	 */
+	public static double[] multiply(double[] a, double[] b) {
+		checkMatrix(a);
+		checkMatrix(b);
+		double[] m = new double[16];
+		for(int row = 0; row < 4; row++) {
+			for(int column = 0; column < 4; column++) {
+				double sum = 0;
+				for(int k = 0; k < 4; k++) {
+					sum += a[row*4+k] * b[k*4+column];
+				}
+				m[row*4+column] = sum;
+			}
+		}
+		return m;
+	}
+
+	/**
+	 * @return
+	 * The matrix that transforms the normals for the matrix m: the inverse-transpose
+	 * of its upper 3x3 part, as a double[9] in row order. A singular m, which flattens
+	 * the mesh, gives its matrix of cofactors instead, which maps the normals of the faces
+	 * that keep an area to the normal of the plane they are flattened to.
+	 */
+	public static double[] normalMatrix(double[] m) {
+		checkMatrix(m);
+		// the cofactors of the upper 3x3 part, which are its inverse-transpose times the determinant
+		double[] n = {
+			m[5] * m[10] - m[6] * m[9], m[6] * m[8] - m[4] * m[10], m[4] * m[9] - m[5] * m[8],
+			m[2] * m[9] - m[1] * m[10], m[0] * m[10] - m[2] * m[8], m[1] * m[8] - m[0] * m[9],
+			m[1] * m[6] - m[2] * m[5], m[2] * m[4] - m[0] * m[6], m[0] * m[5] - m[1] * m[4] };
+		double determinant = m[0] * n[0] + m[1] * n[1] + m[2] * n[2];
+		if(determinant != 0) {
+			for(int i = 0; i < 9; i++) {
+				n[i] /= determinant;
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * Transforms the points from to to - 1 of xyz in place.
+	 * @param xyz - x, y, z of each point, one after the other
+	 */
+	public static void transformPoints(double[] m, double[] xyz, int from, int to) {
+		double m0 = m[0], m1 = m[1], m2 = m[2], m3 = m[3];
+		double m4 = m[4], m5 = m[5], m6 = m[6], m7 = m[7];
+		double m8 = m[8], m9 = m[9], m10 = m[10], m11 = m[11];
+		for(int i = from * 3; i < to * 3; i += 3) {
+			double x = xyz[i], y = xyz[i+1], z = xyz[i+2];
+			xyz[i] = m0 * x + m1 * y + m2 * z + m3;
+			xyz[i+1] = m4 * x + m5 * y + m6 * z + m7;
+			xyz[i+2] = m8 * x + m9 * y + m10 * z + m11;
+		}
+	}
+
+	/**
+	 * Transforms the normals from to to - 1 in place and renormalizes them; zero normals stay zero.
+	 * @param n - the normal matrix, from {@link #normalMatrix(double[])}
+	 * @param normals - nx, ny, nz of each normal, one after the other
+	 */
+	public static void transformNormals(double[] n, float[] normals, int from, int to) {
+		double n0 = n[0], n1 = n[1], n2 = n[2];
+		double n3 = n[3], n4 = n[4], n5 = n[5];
+		double n6 = n[6], n7 = n[7], n8 = n[8];
+		for(int i = from * 3; i < to * 3; i += 3) {
+			double x = normals[i], y = normals[i+1], z = normals[i+2];
+			double nx = n0 * x + n1 * y + n2 * z;
+			double ny = n3 * x + n4 * y + n5 * z;
+			double nz = n6 * x + n7 * y + n8 * z;
+			double length = Math.sqrt(nx * nx + ny * ny + nz * nz);
+			double scale = length > 0 ? 1 / length : 0;
+			normals[i] = (float) (nx * scale);
+			normals[i+1] = (float) (ny * scale);
+			normals[i+2] = (float) (nz * scale);
+		}
+	}
+
+	/**
+	 * Checks that m is a 4x4 affine matrix.
+	 */
+	static void checkMatrix(double[] m) {
+		if(m.length != 16)
+			throw new IllegalArgumentException("AffineTransforms: the matrix must have 16 elements");
+		if(m[12] != 0 || m[13] != 0 || m[14] != 0 || m[15] != 1)
+			throw new IllegalArgumentException("AffineTransforms: the last row of the matrix must be 0, 0, 0, 1");
+	}
+}
@@ -0,0 +1,321 @@
+package thor.model.geoset;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.RandomAccess;
+
+import javax.media.opengl.GL2;
+import javax.media.opengl.GLAutoDrawable;
+
+import thor.graphics.Point3D;
+import thor.graphics.Vector3D;
+import thor.util.Parallel;
+
+/**
+ * A triangle mesh stored in primitive arrays instead of Vertex and Face objects.
+ * <br />
+ * Vertex i is (xyz[3i], xyz[3i+1], xyz[3i+2]) with normal (normals[3i], normals[3i+1], normals[3i+2]),
+ * and triangle j is made of the vertices triangles[3j], triangles[3j+1] and triangles[3j+2].
+ * The arrays can be read and written directly through {@link #getCoordinates()},
+ * {@link #getVertexNormals()} and {@link #getTriangles()}.
+ * <br />
+ * {@link #getVertices()} and {@link #getFaces()} still work, as views that create
+ * the Vertex and Face objects when they are asked for. Setting an element of the
+ * views, or of a face's Vertices, writes through to the arrays, but changing
+ * the fields of a Vertex or Face taken from them does not.
+ */
+public class IndexedTriangleMesh extends Mesh {
+	/** Number of vertices transformed by each task. */
+	private static final int CHUNK_SIZE = 1 << 16;
+
+	private final double[] _xyz;
+	private final float[] _vertexNormals;
+	private final int[] _triangles;
+	private final int _vertexCount;
+	private final int _triangleCount;
+
+	/**
+	 * Creates a mesh backed by the given arrays, which are not copied.
+	 * @param xyz - x, y, z of each vertex
+	 * @param normals - nx, ny, nz of each vertex, or null to start with zero normals
+	 * @param triangles - the three vertex indices of each triangle
+	 */
+	public IndexedTriangleMesh(double[] xyz, float[] normals, int[] triangles) {
+		if(xyz.length % 3 != 0 || triangles.length % 3 != 0)
+			throw new IllegalArgumentException("IndexedTriangleMesh: array lengths must be multiples of 3");
+		if(normals != null && normals.length != xyz.length)
+			throw new IllegalArgumentException("IndexedTriangleMesh: there must be one normal per vertex");
+		_xyz = xyz;
+		_vertexNormals = normals != null ? normals : new float[xyz.length];
+		_triangles = triangles;
+		_vertexCount = xyz.length / 3;
+		_triangleCount = triangles.length / 3;
+
+		// the inherited methods see the mesh through these views
+		_vertices = new VertexView();
+		_faces = new FaceView();
+	}
+
+	/**
+	 * Copies any mesh into an IndexedTriangleMesh, splitting faces of more
+	 * than three vertices into triangle fans. Faces of less than three vertices are left out.
+	 */
+	public static IndexedTriangleMesh copyOf(Mesh mesh) {
+		List<Vertex> vertices = mesh.getVertices();
+		double[] xyz = new double[vertices.size() * 3];
+		float[] normals = new float[vertices.size() * 3];
+		for(int i = 0; i < vertices.size(); i++) {
+			Vertex v = vertices.get(i);
+			xyz[i*3] = v.getX();
+			xyz[i*3+1] = v.getY();
+			xyz[i*3+2] = v.getZ();
+			if(v.Normal != null) {
+				normals[i*3] = (float) v.Normal.getX();
+				normals[i*3+1] = (float) v.Normal.getY();
+				normals[i*3+2] = (float) v.Normal.getZ();
+			}
+		}
+		int count = 0;
+		for(Face face : mesh.getFaces()) {
+			count += Math.max(0, face.Vertices.size() - 2);
+		}
+		int[] triangles = new int[count * 3];
+		int t = 0;
+		for(Face face : mesh.getFaces()) {
+			List<Integer> v = face.Vertices;
+			for(int k = 1; k + 1 < v.size(); k++) {
+				triangles[t++] = v.get(0);
+				triangles[t++] = v.get(k);
+				triangles[t++] = v.get(k+1);
+			}
+		}
+		return new IndexedTriangleMesh(xyz, normals, triangles);
+	}
+
+	/**
+	 * @return
+	 * The x, y, z of every vertex, one after the other. Changes to the array change the mesh,
+	 * and must be followed by a call to {@link #invalidateGeometry()}.
+	 */
+	public double[] getCoordinates() { return _xyz; }
+	/**
+	 * @return
+	 * The nx, ny, nz of every vertex, one after the other. Changes to the array change the mesh.
+	 */
+	public float[] getVertexNormals() { return _vertexNormals; }
+	/**
+	 * @return
+	 * The three vertex indices of every triangle, one after the other. Changes to the array change the mesh,
+	 * and must be followed by a call to {@link #invalidateTopology()}.
+	 */
+	public int[] getTriangles() { return _triangles; }
+
+	/**
+	 * @return
+	 * A new topology of the mesh, over a copy of the triangles.
+	 */
+	@Override
+	protected MeshTopology buildTopology() {
+		return MeshTopology.build(_vertexCount, null, _triangles.clone());
+	}
+
+	/**
+	 * @return
+	 * A new geometry of the mesh, computed over the arrays.
+	 */
+	@Override
+	protected MeshGeometry buildGeometry() {
+		return MeshGeometry.compute(_xyz, null, _triangles);
+	}
+
+	@Override
+	public int countVertices() { return _vertexCount; }
+	@Override
+	public int countFaces() { return _triangleCount; }
+
+	/**
+	 * Moves and scales the coordinates in one pass, split among the threads of
+	 * the shared pool for large meshes.
+	 */
+	@Override
+	public void translateAndScale(final double x, final double y, final double z, final double factor) {
+		Parallel.forRange(0, _vertexCount, CHUNK_SIZE, new Parallel.RangeTask() {
+			public void run(int from, int to) {
+				for(int i = from * 3; i < to * 3; i += 3) {
+					_xyz[i] = (_xyz[i] + x) * factor;
+					_xyz[i+1] = (_xyz[i+1] + y) * factor;
+					_xyz[i+2] = (_xyz[i+2] + z) * factor;
+				}
+			}
+		});
+		invalidateGeometry();
+	}
+
+	/**
+	 * Transforms the coordinates and the normals in one pass over the arrays, split among
+	 * the threads of the shared pool for large meshes.
+	 */
+	@Override
+	public void transform(final double[] matrix) {
+		final double[] normalMatrix = AffineTransforms.normalMatrix(matrix);
+		Parallel.forRange(0, _vertexCount, CHUNK_SIZE, new Parallel.RangeTask() {
+			public void run(int from, int to) {
+				AffineTransforms.transformPoints(matrix, _xyz, from, to);
+				AffineTransforms.transformNormals(normalMatrix, _vertexNormals, from, to);
+			}
+		});
+		invalidateGeometry();
+	}
+
+	/**
+	 * Calculates the normal of every vertex into the normal array. The triangles
+	 * have no normals of their own to set.
+	 */
+	@Override
+	public void calculateNormals(VertexNormals.Weighting weighting) {
+		VertexNormals.computeVertexNormals(_xyz, null, _triangles, weighting, _vertexNormals);
+	}
+
+	@Override
+	public Point3D getFaceCenter(Face face) {
+		double x = 0, y = 0, z = 0;
+		for(int i : face.Vertices) {
+			x += _xyz[i*3];
+			y += _xyz[i*3+1];
+			z += _xyz[i*3+2];
+		}
+		int n = face.Vertices.size();
+		return new Point3D.Double(x / n, y / n, z / n);
+	}
+
+	@Override
+	public double triangleArea(final Face face) {
+		return heronFormula(face.Vertices.get(0), face.Vertices.get(1), face.Vertices.get(2));
+	}
+
+	/**
+	 * @return
+	 * The area of triangle t, with Heron's formula as {@link Mesh#heronFormula(Vertex, Vertex, Vertex)}.
+	 */
+	public double triangleArea(int t) {
+		return heronFormula(_triangles[t*3], _triangles[t*3+1], _triangles[t*3+2]);
+	}
+
+	private double heronFormula(int v1, int v2, int v3) {
+		final double[] p = _xyz;
+		final int i = v1 * 3, j = v2 * 3, k = v3 * 3;
+		final double a = Vector3D.distance(p[i], p[i+1], p[i+2], p[j], p[j+1], p[j+2]);
+		final double b = Vector3D.distance(p[j], p[j+1], p[j+2], p[k], p[k+1], p[k+2]);
+		final double c = Vector3D.distance(p[k], p[k+1], p[k+2], p[i], p[i+1], p[i+2]);
+		final double s = (a + b + c) * 0.5; // semiperimeter
+		return Math.sqrt(s*(s-a)*(s-b)*(s-c));
+	}
+
+	@Override
+	public void draw(GLAutoDrawable drawable) {
+		GL2 gl = drawable.getGL().getGL2();
+		gl.glBegin(GL2.GL_TRIANGLES);
+		for(int t = 0; t < _triangles.length; t++) {
+			int v = _triangles[t] * 3;
+			gl.glVertex3d(_xyz[v], _xyz[v+1], _xyz[v+2]);
+		}
+		gl.glEnd();
+	}
+
+	/** The vertices as Vertex objects, created on each get. */
+	private class VertexView extends AbstractList<Vertex> implements RandomAccess {
+		@Override
+		public Vertex get(int index) {
+			checkIndex(index, _vertexCount);
+			int i = index * 3;
+			Vertex vertex = new Vertex(_xyz[i], _xyz[i+1], _xyz[i+2]);
+			vertex.Normal.setLocation(_vertexNormals[i], _vertexNormals[i+1], _vertexNormals[i+2]);
+			return vertex;
+		}
+
+		@Override
+		public Vertex set(int index, Vertex vertex) {
+			Vertex old = get(index);
+			int i = index * 3;
+			_xyz[i] = vertex.getX();
+			_xyz[i+1] = vertex.getY();
+			_xyz[i+2] = vertex.getZ();
+			if(vertex.Normal != null) {
+				_vertexNormals[i] = (float) vertex.Normal.getX();
+				_vertexNormals[i+1] = (float) vertex.Normal.getY();
+				_vertexNormals[i+2] = (float) vertex.Normal.getZ();
+			}
+			invalidateGeometry();
+			return old;
+		}
+
+		@Override
+		public int size() {
+			return _vertexCount;
+		}
+	}
+
+	/** The triangles as Face objects, created on each get. */
+	private class FaceView extends AbstractList<Face> implements RandomAccess {
+		@Override
+		public Face get(int index) {
+			checkIndex(index, _triangleCount);
+			Face face = new Face();
+			face.Vertices = new TriangleView(index);
+			return face;
+		}
+
+		@Override
+		public Face set(int index, Face face) {
+			if(face.Vertices.size() != 3)
+				throw new IllegalArgumentException("IndexedTriangleMesh: faces must be triangles");
+			Face old = get(index);
+			old.Vertices = new ArrayList<Integer>(old.Vertices);
+			for(int k = 0; k < 3; k++) {
+				_triangles[index*3+k] = face.Vertices.get(k);
+			}
+			invalidateTopology();
+			return old;
+		}
+
+		@Override
+		public int size() {
+			return _triangleCount;
+		}
+	}
+
+	/** The vertex indices of one triangle, read from and written to the index array. */
+	private class TriangleView extends AbstractList<Integer> implements RandomAccess {
+		private final int _offset;
+
+		TriangleView(int triangle) {
+			_offset = triangle * 3;
+		}
+
+		@Override
+		public Integer get(int index) {
+			checkIndex(index, 3);
+			return _triangles[_offset + index];
+		}
+
+		@Override
+		public Integer set(int index, Integer vertex) {
+			checkIndex(index, 3);
+			int old = _triangles[_offset + index];
+			_triangles[_offset + index] = vertex;
+			invalidateTopology();
+			return old;
+		}
+
+		@Override
+		public int size() {
+			return 3;
+		}
+	}
+
+	private static void checkIndex(int index, int size) {
+		if(index < 0 || index >= size)
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+	}
+}
@@ -0,0 +1,219 @@
+package thor.model.geoset;
+
+import java.util.Arrays;
+
+import thor.util.LongIntHashMap;
+
+/**
+ * Decides if a mesh is manifold, with the same two checks as {@link Mesh#isManifold()}:
+ * <ul>
+ * <li>every edge belongs to at most two faces;</li>
+ * <li>the faces around every vertex form one and only one open or closed fan.</li>
+ * </ul>
+ * The checks run either over a {@link MeshTopology} or, for a one-off check that keeps
+ * nothing, over the faces flattened into two int arrays, face j being made of the vertices
+ * indices[starts[j]] to indices[starts[j+1]-1].
+ * <br />
+ * Edges are counted in a {@link LongIntHashMap}, each edge packed into a long key
+ * with its smaller vertex in the high half. For the fans, the corners of the faces are
+ * grouped by vertex; the corners around a vertex are in the same fan when they are linked
+ * through the neighbour vertices they share, which is found with a small union-find over
+ * the sorted neighbours of the vertex. Both checks take time linear in the size of the
+ * mesh (up to the sort of each vertex's few neighbours) and allocate no objects per face.
+ */
+public final class ManifoldChecker {
+
+	private ManifoldChecker() { }
+
+	/**
+	 * @return
+	 * true if the mesh is manifold. The answer is kept with the topology of the mesh
+	 * (see {@link Mesh#getTopology()}) until its faces change.
+	 */
+	public static boolean isManifold(Mesh mesh) {
+		return mesh.getTopology().isManifold();
+	}
+
+	/**
+	 * Runs the checks over an already built topology, whose edges and
+	 * neighbours are used instead of the hash map and the sort.
+	 * @return
+	 * true if the mesh is manifold.
+	 */
+	public static boolean isManifold(MeshTopology topology) {
+		for(int e = 0, edges = topology.countEdges(); e < edges; e++) {
+			if(topology.countEdgeFaces(e) > 2)
+				return false;
+		}
+		int[] parent = new int[maxNeighbours(topology, 0, topology.countVertices()) + 1];
+		for(int v = 0, vertices = topology.countVertices(); v < vertices; v++) {
+			if(countFans(topology, v, parent) > 1)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Counts the fans formed by the faces around a vertex: the groups of its
+	 * corners that are linked through shared edges.
+	 * @param parent - scratch space for the union-find, with room for one more
+	 * than the number of neighbours of the vertex
+	 * @return
+	 * The number of fans, 0 if the vertex belongs to no face.
+	 */
+	static int countFans(MeshTopology topology, int v, int[] parent) {
+		int corners = topology.countVertexFaces(v);
+		if(corners <= 1)
+			return corners;
+		// node i is the i-th neighbour; the vertex itself, in degenerate faces, is the last node
+		int nodes = topology.countNeighbours(v);
+		for(int i = 0; i <= nodes; i++) {
+			parent[i] = i;
+		}
+		int fans = nodes;
+		boolean self = false;
+		for(int i = 0; i < corners; i++) {
+			int h = topology.getVertexHalfEdge(v, i);
+			int next = topology.getTarget(h);
+			int previous = topology.getOrigin(topology.getPrevious(h));
+			if((next == v || previous == v) && !self) {
+				self = true;
+				fans++;
+			}
+			int a = find(parent, next == v ? nodes : topology.indexOfNeighbour(v, next));
+			int b = find(parent, previous == v ? nodes : topology.indexOfNeighbour(v, previous));
+			if(a != b) {
+				parent[a] = b;
+				fans--;
+			}
+		}
+		return fans;
+	}
+
+	/**
+	 * @return
+	 * The largest number of neighbours of the vertices from to to - 1.
+	 */
+	static int maxNeighbours(MeshTopology topology, int from, int to) {
+		int max = 0;
+		for(int v = from; v < to; v++) {
+			max = Math.max(max, topology.countNeighbours(v));
+		}
+		return max;
+	}
+
+	/**
+	 * @param vertices - the number of vertices of the mesh
+	 * @param starts - the start of each face in indices, plus indices.length at the end;
+	 * or null if all the faces are triangles
+	 * @param indices - the vertices of all the faces, one after the other
+	 * @return
+	 * true if the mesh is manifold.
+	 */
+	public static boolean isManifold(int vertices, int[] starts, int[] indices) {
+		if(starts == null)
+			starts = triangleStarts(indices.length / 3);
+		return edgesBelongToAtMostTwoFaces(starts, indices) && facesAroundVerticesFormOneFan(vertices, starts, indices);
+	}
+
+	/**
+	 * Counts how many faces have each edge, the vertex order of the edge being ignored.
+	 */
+	static boolean edgesBelongToAtMostTwoFaces(int[] starts, int[] indices) {
+		LongIntHashMap edgeFaceNumber = new LongIntHashMap(indices.length / 2);
+		for(int j = 0, faces = starts.length - 1; j < faces; j++) {
+			int first = starts[j], last = starts[j+1] - 1;
+			for(int k = first; k <= last; k++) {
+				int v1 = indices[k];
+				int v2 = indices[k == last ? first : k + 1];
+				if(edgeFaceNumber.addTo(edgeKey(v1, v2), 1) > 2)
+					return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Checks that the corners around each vertex are all connected through shared edges.
+	 */
+	static boolean facesAroundVerticesFormOneFan(int vertices, int[] starts, int[] indices) {
+		// group the corners by vertex: the corners of vertex v are cornerStarts[v] to cornerStarts[v+1]-1
+		int[] cornerStarts = new int[vertices + 1];
+		for(int v : indices) {
+			cornerStarts[v+1]++;
+		}
+		int maxCorners = 0;
+		for(int v = 0; v < vertices; v++) {
+			maxCorners = Math.max(maxCorners, cornerStarts[v+1]);
+			cornerStarts[v+1] += cornerStarts[v];
+		}
+		// the next and previous vertex of each corner, in its face
+		int[] neighbours = new int[indices.length * 2];
+		int[] fill = Arrays.copyOf(cornerStarts, vertices);
+		for(int j = 0, faces = starts.length - 1; j < faces; j++) {
+			int first = starts[j], last = starts[j+1] - 1;
+			for(int k = first; k <= last; k++) {
+				int corner = fill[indices[k]]++;
+				neighbours[corner*2] = indices[k == last ? first : k + 1];
+				neighbours[corner*2+1] = indices[k == first ? last : k - 1];
+			}
+		}
+
+		int[] sorted = new int[maxCorners * 2];
+		int[] parent = new int[maxCorners * 2];
+		for(int v = 0; v < vertices; v++) {
+			int from = cornerStarts[v] * 2, to = cornerStarts[v+1] * 2;
+			if(to - from <= 2)
+				continue; // no corners or a single one: at most one fan
+			// the distinct neighbours of the vertex, each one a node of the union-find
+			int n = to - from;
+			System.arraycopy(neighbours, from, sorted, 0, n);
+			Arrays.sort(sorted, 0, n);
+			int nodes = 1;
+			for(int i = 1; i < n; i++) {
+				if(sorted[i] != sorted[nodes-1])
+					sorted[nodes++] = sorted[i];
+			}
+			for(int i = 0; i < nodes; i++) {
+				parent[i] = i;
+			}
+			// each corner links its two neighbours; one fan is one set of neighbours
+			int fans = nodes;
+			for(int c = from; c < to; c += 2) {
+				int a = find(parent, Arrays.binarySearch(sorted, 0, nodes, neighbours[c]));
+				int b = find(parent, Arrays.binarySearch(sorted, 0, nodes, neighbours[c+1]));
+				if(a != b) {
+					parent[a] = b;
+					fans--;
+				}
+			}
+			if(fans > 1)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return
+	 * The key of the edge (v1, v2), the same as that of (v2, v1).
+	 */
+	static long edgeKey(int v1, int v2) {
+		return v1 < v2 ? ((long) v1 << 32) | (v2 & 0xFFFFFFFFL) : ((long) v2 << 32) | (v1 & 0xFFFFFFFFL);
+	}
+
+	static int[] triangleStarts(int triangles) {
+		int[] starts = new int[triangles + 1];
+		for(int j = 1; j <= triangles; j++) {
+			starts[j] = j * 3;
+		}
+		return starts;
+	}
+
+	private static int find(int[] parent, int x) {
+		while(parent[x] != x) {
+			parent[x] = parent[parent[x]]; // path halving
+			x = parent[x];
+		}
+		return x;
+	}
+}
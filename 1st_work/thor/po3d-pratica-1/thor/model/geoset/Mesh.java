@@ -4,8 +4,6 @@ package thor.model.geoset;
 import java.awt.geom.Point2D;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
-import java.util.TreeMap;
 
 import javax.media.opengl.GL2;
 import javax.media.opengl.GLAutoDrawable;
@@ -13,6 +11,7 @@ import javax.media.opengl.GLAutoDrawable;
 import quickhull3d.QuickHull3D;
 import thor.graphics.Vector3D;
 import thor.graphics.Point3D;
+import thor.util.Parallel;
 
 /**
  * The abstract class Mesh is the superclass of all classes that represent polygon mesh.
@@ -25,12 +24,19 @@ public abstract class Mesh extends Object {
 	protected List<Vector3D> _normals = new ArrayList<Vector3D>();	// list of normals
 	protected List<Face> _faces = new ArrayList<Face>(); 			// list of faces (triangles)
 
+	/** Number of vertices transformed by each task. */
+	private static final int TRANSFORM_CHUNK_SIZE = 1 << 16;
+
 	protected Point3D _maxVertex;
 	protected Point3D _minVertex;
+
+	private volatile MeshTopology _topology;		// connectivity, built on demand
+	private volatile MeshGeometry _geometry;		// bounds, area and centers, computed on demand
 	
 	public Mesh() {
-		_maxVertex = new Point3D.Float(-9999, -9999, -9999);
-		_minVertex = new Point3D.Float(9999, 9999, 9999);
+		// kept up to date by BufferedMesh as vertices are added; getMaxVertex() and getMinVertex() use the geometry
+		_maxVertex = new Point3D.Double(Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY);
+		_minVertex = new Point3D.Double(Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY);
 	}
 	/**
 	 * @return
@@ -62,6 +68,105 @@ public abstract class Mesh extends Object {
 	 * Return the total number of faces in the mesh.
 	 */
 	public int countFaces() { return _faces.size(); }
+	/**
+	 * @return
+	 * Return the total number of distinct edges in the mesh.
+	 */
+	public int countEdges() { return getTopology().countEdges(); }
+
+	/**
+	 * @return
+	 * The connectivity of the mesh. It is built on the first call and kept until
+	 * the number of vertices or faces changes or {@link #invalidateTopology()} is called.
+	 * The topology never changes, so it can be shared by several threads.
+	 */
+	public MeshTopology getTopology() {
+		MeshTopology topology = _topology;
+		if(topology == null || topology.countVertices() != countVertices() || topology.countFaces() != countFaces()) {
+			topology = buildTopology();
+			_topology = topology;
+		}
+		return topology;
+	}
+
+	/**
+	 * Drops the topology of the mesh, and its geometry, which must be called
+	 * after changing the vertices of a face in place.
+	 */
+	public void invalidateTopology() {
+		_topology = null;
+		_geometry = null;
+	}
+
+	/**
+	 * @return
+	 * A new topology of the mesh, from its faces flattened into arrays.
+	 */
+	protected MeshTopology buildTopology() {
+		int[][] faces = flattenFaces();
+		return MeshTopology.build(countVertices(), faces[0], faces[1]);
+	}
+
+	/**
+	 * @return
+	 * The bounds, area and centers of the mesh. They are computed on the first call and kept
+	 * until the mesh is moved by {@link #translate(double, double, double)}, {@link #scale(double)}
+	 * or a rotation, the number of vertices or faces changes, or {@link #invalidateGeometry()} is called.
+	 */
+	public MeshGeometry getGeometry() {
+		MeshGeometry geometry = _geometry;
+		if(geometry == null || geometry.countVertices() != countVertices() || geometry.countFaces() != countFaces()) {
+			geometry = buildGeometry();
+			_geometry = geometry;
+		}
+		return geometry;
+	}
+
+	/**
+	 * Drops the geometry of the mesh, which must be called after moving vertices in place.
+	 */
+	public void invalidateGeometry() {
+		_geometry = null;
+	}
+
+	/**
+	 * @return
+	 * A new geometry of the mesh, from its vertices and faces flattened into arrays.
+	 */
+	protected MeshGeometry buildGeometry() {
+		double[] xyz = new double[_vertices.size() * 3];
+		int i = 0;
+		for(Vertex v : _vertices) {
+			xyz[i++] = v.x;
+			xyz[i++] = v.y;
+			xyz[i++] = v.z;
+		}
+		MeshTopology topology = _topology;
+		if(topology != null && topology.countVertices() == countVertices() && topology.countFaces() == countFaces())
+			return MeshGeometry.compute(xyz, topology.getFaceStarts(), topology.getIndices());
+		int[][] faces = flattenFaces();
+		return MeshGeometry.compute(xyz, faces[0], faces[1]);
+	}
+
+	/**
+	 * @return
+	 * The start of each face in the indices, plus the number of indices at the end,
+	 * and the vertices of all the faces, one after the other.
+	 */
+	private int[][] flattenFaces() {
+		int[] starts = new int[_faces.size() + 1];
+		for(int j = 0; j < _faces.size(); j++) {
+			starts[j+1] = starts[j] + _faces.get(j).Vertices.size();
+		}
+		int[] indices = new int[starts[_faces.size()]];
+		int k = 0;
+		for(Face face : _faces) {
+			for(int v : face.Vertices) {
+				indices[k++] = v;
+			}
+		}
+		return new int[][] { starts, indices };
+	}
 
 	/**
 	 * Moves every point of the mesh a (x, y, z) distance.
@@ -70,65 +175,142 @@ public abstract class Mesh extends Object {
 	 * @param z - the Z coordinate to add.
 	 */
 	public void translate(double x, double y, double z) {
-		for (Vertex vertex : _vertices) {
-			vertex.add(new Point3D.Double(x, y, z));
-		}
+		translateAndScale(x, y, z, 1);
 	}
 	/**
 	 * Change the dimension of object by a scaling factor, i.e. enlarging or shrinking. 
 	 * @param value - the scale factor
 	 */
 	public void scale(double value) {
+		translateAndScale(0, 0, 0, value);
+	}
+	/**
+	 * Moves every point of the mesh a (x, y, z) distance and then scales it, in a single
+	 * pass over the vertices: each point p becomes (p + (x, y, z)) * factor.
+	 * @param x - the X coordinate to add.
+	 * @param y - the Y coordinate to add.
+	 * @param z - the Z coordinate to add.
+	 * @param factor - the scale factor
+	 */
+	public void translateAndScale(double x, double y, double z, double factor) {
 		for (Vertex vertex : _vertices) {
-			vertex.mul(value);
+			vertex.setLocation((vertex.x + x) * factor, (vertex.y + y) * factor, (vertex.z + z) * factor);
 		}
+		invalidateGeometry();
 	}
+	/**
+	 * Rotates the mesh, and its normals, around the X axis.
+	 * @param angle - the angle in radians
+	 */
 	public void rotateX(float angle) {
-		for (Vertex vertex : _vertices) {
-			double rangle = Math.atan(vertex.getY() / vertex.getX()) * (float) (Math.PI /180);
-			vertex.setLocation( (float) Math.cos(angle + rangle),
-								(float) Math.asin(angle + rangle),
-								vertex.getZ());
-		}
+		transform(AffineTransforms.rotationX(angle));
 	}
+	/**
+	 * Rotates the mesh, and its normals, around the Z axis.
+	 * @param angle - the angle in radians
+	 */
 	public void rotateZ(float angle) {
-		for (Vertex vertex : _vertices) {
-			double rangle = Math.atan(vertex.getY()/vertex.getX()) * (float) (Math.PI /180);
-			vertex.setLocation( (float) Math.cos(angle + rangle),
-								(float) Math.asin(angle + rangle),
-								vertex.getZ());
+		transform(AffineTransforms.rotationZ(angle));
+	}
+	/**
+	 * Applies an affine transform to every point of the mesh, and its inverse-transpose to the
+	 * normals of the vertices and faces, which are renormalized. Transforms built and composed
+	 * with {@link AffineTransforms} cost a single pass, split among the threads of the shared
+	 * pool for large meshes.
+	 * @param matrix - the 4x4 matrix, in row order, whose last row must be 0, 0, 0, 1
+	 */
+	public void transform(final double[] matrix) {
+		final double[] normalMatrix = AffineTransforms.normalMatrix(matrix);
+		Parallel.forRange(0, _vertices.size(), TRANSFORM_CHUNK_SIZE, new Parallel.RangeTask() {
+			public void run(int from, int to) {
+				for(int i = from; i < to; i++) {
+					Vertex v = _vertices.get(i);
+					double x = v.x, y = v.y, z = v.z;
+					v.setLocation(
+							matrix[0] * x + matrix[1] * y + matrix[2] * z + matrix[3],
+							matrix[4] * x + matrix[5] * y + matrix[6] * z + matrix[7],
+							matrix[8] * x + matrix[9] * y + matrix[10] * z + matrix[11]);
+					if(v.Normal != null)
+						transformNormal(normalMatrix, v.Normal);
+				}
+			}
+		});
+		for(Face face : _faces) {
+			if(face.Normal != null)
+				transformNormal(normalMatrix, face.Normal);
+		}
+		for(Vector3D normal : _normals) {
+			transformNormal(normalMatrix, normal);
 		}
+		invalidateGeometry();
+	}
+
+	/**
+	 * Transforms a normal by the normal matrix of {@link AffineTransforms#normalMatrix(double[])}
+	 * and renormalizes it.
+	 */
+	private static void transformNormal(double[] n, Vector3D normal) {
+		double x = normal.getX(), y = normal.getY(), z = normal.getZ();
+		double nx = n[0] * x + n[1] * y + n[2] * z;
+		double ny = n[3] * x + n[4] * y + n[5] * z;
+		double nz = n[6] * x + n[7] * y + n[8] * z;
+		double length = Math.sqrt(nx * nx + ny * ny + nz * nz);
+		double scale = length > 0 ? 1 / length : 0;
+		normal.setLocation(nx * scale, ny * scale, nz * scale);
 	}
 	
+	/**
+	 * Calculates the normal of every face, and that of every vertex weighting
+	 * its faces by their area (see {@link VertexNormals}).
+	 */
 	public void calculateNormals() {
-		//MyTODO: ok... kinda of tired, so calculate only for 3 vertices, screw when there are 4...
-		// i'll do it later, maybe calculate each face normal
-		for(Face face : _faces) {
-			Point3D p1 = _vertices.get(face.Vertices.get(0));
-			Point3D p2 = _vertices.get(face.Vertices.get(1));
-			Point3D p3 = _vertices.get(face.Vertices.get(2));
+		calculateNormals(VertexNormals.Weighting.AREA);
+	}
 
-			Vector3D v1 = Vector3D.sub(p2, p1);
-			Vector3D v2 = Vector3D.sub(p3, p1);
-			
-			face.Normal = Vector3D.product(v1, v2);
-			face.Normal.normalize();
-			
-			for(int i : face.Vertices) {
-				Vertex v = _vertices.get(face.Vertices.get(i));
-				v.Normal.add(face.Normal);
-			}
+	/**
+	 * Calculates the normal of every face, and that of every vertex as the
+	 * normalized sum of the normals of its faces.
+	 * @param weighting - how much each face counts towards the normals of its vertices
+	 */
+	public void calculateNormals(VertexNormals.Weighting weighting) {
+		MeshTopology topology = getTopology();
+		double[] xyz = new double[_vertices.size() * 3];
+		int i = 0;
+		for(Vertex v : _vertices) {
+			xyz[i++] = v.x;
+			xyz[i++] = v.y;
+			xyz[i++] = v.z;
+		}
+		float[] faceNormals = VertexNormals.computeFaceNormals(xyz, topology.getFaceStarts(), topology.getIndices(), null);
+		float[] vertexNormals = VertexNormals.computeVertexNormals(xyz, topology.getFaceStarts(), topology.getIndices(), weighting, null);
+
+		i = 0;
+		for(Face face : _faces) {
+			face.Normal = new Vector3D(faceNormals[i], faceNormals[i+1], faceNormals[i+2]);
+			i += 3;
 		}
+		i = 0;
 		for(Vertex v : _vertices) {
-			v.Normal.normalize();
+			if(v.Normal == null)
+				v.Normal = new Vector3D();
+			v.Normal.setLocation(vertexNormals[i], vertexNormals[i+1], vertexNormals[i+2]);
+			i += 3;
 		}
 	}
 	
+	/**
+	 * @return
+	 * The largest x, y and z of the vertices, from {@link #getGeometry()}.
+	 */
 	public Point3D getMaxVertex() {
-		return _maxVertex;
+		return getGeometry().getMaxVertex();
 	}
+	/**
+	 * @return
+	 * The smallest x, y and z of the vertices, from {@link #getGeometry()}.
+	 */
 	public Point3D getMinVertex() {
-		return _minVertex;
+		return getGeometry().getMinVertex();
 	}
 	
 
@@ -162,20 +344,10 @@ public abstract class Mesh extends Object {
 	
 	public Point3D getBarycenter() {
 		/* : PO3D Pratica 1 - calculate the barycenter of the mesh
-		 * * Point3D.Double(x, y, z) -> creates a new Point3D with doubles
-		 * * _maxVertex -> contains the max values of each coordinate
-		 * * _minVertex -> contains the min values of each coordinate
+		 * *
+		 * The mean of the centers of the faces, from getGeometry().
 		 */
-	    Point3D res = new Point3D.Double(0,0,0);
-        Point3D faceCenter;
-        
-        for (Face f: _faces){
-            faceCenter = getFaceCenter(f);
-            res.add(faceCenter);
-        }
-        res.div(_faces.size());
-        
-        return res;
+		return getGeometry().getBarycenter();
 	}
 	
 	public boolean isManifold() {
@@ -190,89 +362,9 @@ public abstract class Mesh extends Object {
 	     *  singular edges;
 	     *  - All faces incident in each vertex must form one and only one
 	     *  open or closed fan. 
+	     * Both are done by ManifoldChecker over the topology of the mesh.
 	     */
-		// Check if each edge has at most two incident faces.
-		// Count how many faces have each edge. (the vertex order of the edge is ignored)
-	    Map<Edge, Integer> edgeFaceNumber = new TreeMap<Edge, Integer>();
-		for (Face face : _faces) {//for all faces
-			for (int edge = 0, size = face.Vertices.size(); edge < size; ++edge) {//for all edges
-				int v1 = face.Vertices.get(edge);
-				int v2 = face.Vertices.get((edge+1)%size);
-				Edge e = new Edge(v1, v2);
-				if (!edgeFaceNumber.containsKey(e))
-					edgeFaceNumber.put(e, 0);
-				edgeFaceNumber.put(e, edgeFaceNumber.get(e)+1);//add one to the edge's faces
-			}
-		}
-		boolean edgesBelongToAtMostTwoFaces = true;
-		for (Integer i : edgeFaceNumber.values()) {
-			if (i > 2)
-				edgesBelongToAtMostTwoFaces = false;
-		}
-		// For each vertex check if adjacent faces for a open or closed fan
-		/*
-		 * This check is done in two phases:
-		 *  - The incident faces on each vertex are collected with the adjacent vertices stored;
-		 *  - It is checked that all adjacent faces of each vertex form a fan.
-		 */
-		@SuppressWarnings("unchecked")
-        List<VertexAdjacenciesInFace>[] vertsAdjs = new List[_vertices.size()];
-		for (int i=vertsAdjs.length-1;i>=0;i--) {//init vertex adjacencies
-			vertsAdjs[i] = new ArrayList<VertexAdjacenciesInFace>();
-		}
-		for (int faceInd=_faces.size()-1;faceInd>=0;faceInd--) {//fill vertex adjacencies
-		    Face f = _faces.get(faceInd);
-			final int faceVertexNum = _faces.get(faceInd).Vertices.size();
-			for (int vertInd=0; vertInd<faceVertexNum; vertInd++) {
-				/* The face is incident on it's vertices and 
-				 * for each of them the adjacent vertices are 
-				 * the previous and the next.
-			     */
-			    int vert = f.Vertices.get(vertInd);
-				vertsAdjs[vert].add(new VertexAdjacenciesInFace(faceInd, 
-																f.Vertices.get((vertInd+1)%faceVertexNum), 
-																f.Vertices.get((vertInd+faceVertexNum-1)%faceVertexNum)));
-			}
-		}
-		boolean facesAroundVerticesFormOneFan = true;
-		for (List<VertexAdjacenciesInFace> vertAdjsList : vertsAdjs) {
-			// Each set in the DisjointSets represents one fan.
-		    DisjointSets faceConnectivity = new DisjointSets(vertAdjsList.size());
-			for (int f1=0; f1<vertAdjsList.size(); f1++) {
-				for (int f2=0; f2<vertAdjsList.size(); f2++) {
-					if (f1 == f2) continue;
-					/* If two faces are adjacent join the sets they belong
-					 * to if not already joined.
-					*/
-					if (adjacentFacesOnVertex(vertAdjsList.get(f1), vertAdjsList.get(f2))) {
-						// get the set for each face
-					    int f1Root = faceConnectivity.find(f1);
-						int f2Root = faceConnectivity.find(f2);
-						// join then if not the same
-						if (f1Root == f2Root) continue; //faces already connected
-						faceConnectivity.union(f1Root, f2Root);
-					}
-				}
-			}
-			// Check if there is indeed only one fan for the vertex.
-			if (faceConnectivity.countSets() > 1) {
-			    facesAroundVerticesFormOneFan = false;
-			}
-		}
-		
-		return edgesBelongToAtMostTwoFaces && facesAroundVerticesFormOneFan;
-	}
-
-	/**
-	 * This method decides if two faces are adjacent through edges that share
-	 * the current vertex and vertices connected to it by an edge.
-	 * @param f1 current vertex adjacency information for one face
-	 * @param f2 current vertex adjacency information for other face
-	 */
-	private boolean adjacentFacesOnVertex(VertexAdjacenciesInFace f1, VertexAdjacenciesInFace f2) {
-		return 
-				f1.adj1 == f2.adj1 || f1.adj1 == f2.adj2 ||
-				f1.adj2 == f2.adj1 || f1.adj2 == f2.adj2;
+		return getTopology().isManifold();
 	}
 	
 	public double getSurfaceArea() {
@@ -283,30 +375,12 @@ public abstract class Mesh extends Object {
 		 */
 	    /*
 	     * This implementation uses Heron's Formula to compute the area each triangle
-	     * of the mesh. It also computes the area of convex quads which can be 
-	     * safely decomposed in two triangles of which the areas are summed.
+	     * of the mesh. Larger faces are split in triangle fans, which is exact for
+	     * convex ones. The area is computed once by getGeometry().
 	     */
-		double totalArea = 0.0;
-		int quads = 0; int tris = 0; int other = 0;
-		for (Face face : _faces) {
-			switch (face.Vertices.size()) {
-			case 3:
-				++tris;
-				totalArea += triangleArea(face);
-				break;
-			case 4:
-				++quads;
-				totalArea += convexQuadArea(face);
-				break;
-			default:
-				++other;
-				break;
-			}
-		}
-		System.out.println("Quads: "+quads+"\tTris: "+tris+"\tOther: "+other);
-		return totalArea;
+		return getGeometry().getSurfaceArea();
 	}
-	
+
 	public double triangleArea(final Face face) {
 		final Vertex v1 = _vertices.get(face.Vertices.get(0));
 		final Vertex v2 = _vertices.get(face.Vertices.get(1));
@@ -369,141 +443,3 @@ public abstract class Mesh extends Object {
 	    }
 	}
 }
-
-// isManifold() auxiliary classes
-/**
- * An Edge represents an edge of a mesh.
- * It is assumed that the edge (first,last) is the same as (last,first).
- */
-class Edge implements Comparable<Edge>{
-	public final int first;
-	public final int last;
-	public Edge(int v1, int v2) {
-		if (v1 < v2) {
-			this.first = v1;
-			this.last = v2;
-		} else {
-			this.first = v2;
-			this.last = v1;
-		}
-	}
-	public boolean equals(Edge other) {
-		return this.first == other.first && this.last == other.last;
-	}
-	@Override
-	public int compareTo(Edge o) {
-		int firstDiff = first - o.first;
-		int lastDiff = last - o.last;
-		if (firstDiff != 0)
-			return firstDiff;
-		else 
-			return lastDiff;
-	}
-	@Override
-	public String toString() {
-		return "[Edge "+first+" "+last+"]";
-	}
-}
-
-/**
- * Container for a vertex's adjacent vertices in a face.
- * A vertex is adjacent to other if they are connected by an edge.
- * A vertex has exactly two adjacent vertices within a face since
- * it only appears once in it.
- */
-class VertexAdjacenciesInFace {
-    /**Vertex index of one adjacent vertex.*/
-	public final int adj1;
-	/**Vertex index of other adjacent vertex.*/
-	public final int adj2;
-	/**Face index of the face the edges formed by the vertices belong.*/
-	public final int face;
-	public VertexAdjacenciesInFace(int face, int adj1, int adj2) {
-		this.face = face;
-		this.adj1 = adj1;
-		this.adj2 = adj2;
-	}
-	@Override
-    public String toString() {
-        return "[VAdj f="+face+" ("+adj1+","+adj2+")]";
-    }
-}
-
-/**
- *  A disjoint sets ADT.  Performs union-by-rank and path compression.
- *  Implemented using arrays.  There is no error checking whatsoever.
- *  By adding your own error-checking, you might save yourself a lot of time
- *  finding bugs in your application code for Project 3 and Homework 9.
- *  Without error-checking, expect bad things to happen if you try to unite
- *  two elements that are not roots of their respective sets, or are not
- *  distinct.
- *
- *  Elements are represented by ints, numbered from zero.
- *
- *  Source: http://www.cs.berkeley.edu/~jrs/61bs02/hw/hw9/set/DisjointSets.java
- *  @author Mark Allen Weiss
- **/
-class DisjointSets {
-
-  private int[] array;
-
-  /**
-   *  Construct a disjoint sets object.
-   *
-   *  @param numElements the initial number of elements--also the initial
-   *  number of disjoint sets, since every element is initially in its own set.
-   **/
-  public DisjointSets(int numElements) {
-    array = new int [numElements];
-    for (int i = 0; i < array.length; i++) {
-      array[i] = -1;
-    }
-  }
-
-  /**
-   *  union() unites two disjoint sets into a single set.  A union-by-rank
-   *  heuristic is used to choose the new root.  This method will corrupt
-   *  the data structure if root1 and root2 are not roots of their respective
-   *  sets, or if they're identical.
-   *
-   *  @param root1 the root of the first set.
-   *  @param root2 the root of the other set.
-   **/
-  public void union(int root1, int root2) {
-    if (array[root2] < array[root1]) {
-      array[root1] = root2;             // root2 is taller; make root2 new root
-    } else {
-      if (array[root1] == array[root2]) {
-        array[root1]--;            // Both trees same height; new one is taller
-      }
-      array[root2] = root1;       // root1 equal or taller; make root1 new root
-    }
-  }
-
-  /**
-   *  find() finds the (int) name of the set containing a given element.
-   *  Performs path compression along the way.
-   *
-   *  @param x the element sought.
-   *  @return the set containing x.
-   **/
-  public int find(int x) {
-    if (array[x] < 0) {
-      return x;                         // x is the root of the tree; return it
-    } else {
-      // Find out who the root is; compress path by making the root x's parent.
-      array[x] = find(array[x]);
-      return array[x];                                       // Return the root
-    }
-  }
-  
-  public int countSets() {
-      int setCount = 0;
-      for (int i = 0; i < array.length; i++) {
-          if (array[i] < 0)
-              setCount++;
-      }
-      return setCount;
-  }
-}
-// end of isManifold() auxiliary classes
\ No newline at end of file
@@ -0,0 +1,505 @@
+package thor.model.geoset;
+
+import java.util.Arrays;
+
+import thor.util.IndexedDoubleHeap;
+
+/**
+ * Simplifies a triangle mesh by collapsing edges, the cheapest first, as measured by
+ * quadric error metrics (Garland and Heckbert, "Surface Simplification Using Quadric Error Metrics").
+ * <br />
+ * Every vertex keeps the quadric of the planes of its original triangles, summed as the
+ * vertices are merged, so the error of a position is the sum of the squared distances to
+ * those planes. Each edge would be collapsed to the position of least error for the sum of
+ * the quadrics of its two vertices, and the edges wait in an {@link IndexedDoubleHeap} keyed by
+ * that error; after a collapse only the edges around the merged vertex are updated. Boundary
+ * edges add the quadric of a plane perpendicular to their face, weighted by {@link #BOUNDARY_WEIGHT},
+ * so that borders keep their shape.
+ * <br />
+ * A collapse is skipped when it would make the mesh non-manifold (the two vertices must share
+ * no neighbour other than the third vertices of their common faces, and an interior edge must not
+ * join two boundary vertices) or turn a triangle over. Edges of more than two faces are never collapsed.
+ * <br />
+ * Faces with more than three vertices are split into triangle fans first. The result is a
+ * new {@link IndexedTriangleMesh} whose normals are zero until they are calculated.
+ */
+public final class MeshDecimator {
+	/** How much more the planes along the boundary count than those of the faces. */
+	public static final double BOUNDARY_WEIGHT = 1000;
+
+	private final double[] _xyz;
+	private final int[] _triangles;
+	private final boolean[] _faceAlive;
+	private int _faceCount;
+
+	private final double[] _quadrics;		// 10 coefficients per vertex, see addPlane
+	private final boolean[] _boundary;		// vertices on the boundary
+	private final int[][] _vertexFaces;		// the faces of each vertex, dead ones included
+	private final int[] _vertexFaceCount;
+	private final int[][] _vertexEdges;		// the edges of each vertex, dead ones included
+	private final int[] _vertexEdgeCount;
+
+	private final int[] _edgeA;
+	private final int[] _edgeB;
+	private final boolean[] _edgeAlive;
+	private final boolean[] _edgeLocked;	// edges never collapsed
+	private final double[] _edgeTarget;		// x, y, z of the position each edge collapses to
+	private final IndexedDoubleHeap _heap;
+
+	private final double[] _quadric = new double[10];	// scratch quadric of an edge
+	private final int[] _mark;				// scratch marks of vertices, by _stamp
+	private int _stamp;
+
+	/**
+	 * Simplifies the mesh down to a number of faces.
+	 * @param targetFaces - stop when the mesh has this many faces or less
+	 * @return
+	 * A new, simplified mesh; the given one is not changed.
+	 */
+	public static IndexedTriangleMesh decimate(Mesh mesh, int targetFaces) {
+		return decimate(mesh, targetFaces, Double.POSITIVE_INFINITY);
+	}
+
+	/**
+	 * Simplifies the mesh down to a number of faces, or until the next collapse would cost more than
+	 * the given error, whichever comes first.
+	 * @param targetFaces - stop when the mesh has this many faces or less
+	 * @param maxError - stop when the cheapest collapse would move a vertex further than this from the
+	 * planes of its original faces, measured as the sum of the squared distances
+	 * @return
+	 * A new, simplified mesh; the given one is not changed.
+	 */
+	public static IndexedTriangleMesh decimate(Mesh mesh, int targetFaces, double maxError) {
+		IndexedTriangleMesh source = mesh instanceof IndexedTriangleMesh ? (IndexedTriangleMesh) mesh : IndexedTriangleMesh.copyOf(mesh);
+		MeshDecimator decimator = new MeshDecimator(source.getCoordinates().clone(), source.getTriangles().clone());
+		decimator.run(targetFaces, maxError);
+		return decimator.toMesh();
+	}
+
+	private MeshDecimator(double[] xyz, int[] triangles) {
+		final int vertices = xyz.length / 3;
+		final int faces = triangles.length / 3;
+		_xyz = xyz;
+		_triangles = triangles;
+		_faceAlive = new boolean[faces];
+		_quadrics = new double[vertices * 10];
+		_boundary = new boolean[vertices];
+		_mark = new int[vertices];
+
+		// the faces of each vertex, and the quadrics of their planes
+		_vertexFaceCount = new int[vertices];
+		for(int f = 0; f < faces; f++) {
+			int a = triangles[f*3], b = triangles[f*3+1], c = triangles[f*3+2];
+			if(a == b || b == c || c == a)
+				continue; // degenerate, left out
+			_faceAlive[f] = true;
+			_faceCount++;
+			_vertexFaceCount[a]++;
+			_vertexFaceCount[b]++;
+			_vertexFaceCount[c]++;
+			double[] plane = plane(a, b, c);
+			if(plane != null) {
+				addPlane(a, plane, 1);
+				addPlane(b, plane, 1);
+				addPlane(c, plane, 1);
+			}
+		}
+		_vertexFaces = new int[vertices][];
+		for(int v = 0; v < vertices; v++) {
+			_vertexFaces[v] = new int[Math.max(4, _vertexFaceCount[v])];
+			_vertexFaceCount[v] = 0;
+		}
+		for(int f = 0; f < faces; f++) {
+			if(_faceAlive[f]) {
+				for(int k = 0; k < 3; k++) {
+					int v = triangles[f*3+k];
+					_vertexFaces[v][_vertexFaceCount[v]++] = f;
+				}
+			}
+		}
+
+		// the edges, from the topology of the faces left
+		int[] live = new int[_faceCount * 3];
+		for(int f = 0, k = 0; f < faces; f++) {
+			if(_faceAlive[f]) {
+				System.arraycopy(triangles, f*3, live, k, 3);
+				k += 3;
+			}
+		}
+		MeshTopology topology = MeshTopology.build(vertices, null, live);
+		int edges = topology.countEdges();
+		_edgeA = new int[edges];
+		_edgeB = new int[edges];
+		_edgeAlive = new boolean[edges];
+		_edgeLocked = new boolean[edges];
+		_edgeTarget = new double[edges * 3];
+		_vertexEdgeCount = new int[vertices];
+		for(int e = 0; e < edges; e++) {
+			int h = topology.getEdgeHalfEdge(e, 0);
+			int a = topology.getOrigin(h), b = topology.getTarget(h);
+			_edgeA[e] = a;
+			_edgeB[e] = b;
+			_edgeAlive[e] = true;
+			_edgeLocked[e] = topology.countEdgeFaces(e) > 2;
+			_vertexEdgeCount[a]++;
+			_vertexEdgeCount[b]++;
+			if(topology.isBoundaryEdge(e)) {
+				_boundary[a] = _boundary[b] = true;
+				double[] plane = boundaryPlane(a, b, topology.getOrigin(topology.getPrevious(h)));
+				if(plane != null) {
+					addPlane(a, plane, BOUNDARY_WEIGHT);
+					addPlane(b, plane, BOUNDARY_WEIGHT);
+				}
+			}
+		}
+		_vertexEdges = new int[vertices][];
+		for(int v = 0; v < vertices; v++) {
+			_vertexEdges[v] = new int[Math.max(4, _vertexEdgeCount[v])];
+			_vertexEdgeCount[v] = 0;
+		}
+		for(int e = 0; e < edges; e++) {
+			_vertexEdges[_edgeA[e]][_vertexEdgeCount[_edgeA[e]]++] = e;
+			_vertexEdges[_edgeB[e]][_vertexEdgeCount[_edgeB[e]]++] = e;
+		}
+
+		_heap = new IndexedDoubleHeap(edges);
+		for(int e = 0; e < edges; e++) {
+			if(!_edgeLocked[e])
+				_heap.set(e, cost(e));
+		}
+	}
+
+	private void run(int targetFaces, double maxError) {
+		while(_faceCount > targetFaces && !_heap.isEmpty()) {
+			int e = _heap.peek();
+			if(_heap.getKey(e) > maxError)
+				break;
+			_heap.remove(e);
+			if(canCollapse(e))
+				collapse(e);
+			// else it waits out of the heap until a collapse next to it updates it
+		}
+	}
+
+	/**
+	 * @return
+	 * The error of the best position for the edge, which is kept in _edgeTarget.
+	 */
+	private double cost(int e) {
+		int a = _edgeA[e] * 10, b = _edgeB[e] * 10;
+		double[] q = _quadric;
+		for(int i = 0; i < 10; i++) {
+			q[i] = _quadrics[a+i] + _quadrics[b+i];
+		}
+		// the minimum of the quadric, where its gradient is zero
+		double c00 = q[4] * q[7] - q[5] * q[5];
+		double c01 = q[2] * q[5] - q[1] * q[7];
+		double c02 = q[1] * q[5] - q[2] * q[4];
+		double determinant = q[0] * c00 + q[1] * c01 + q[2] * c02;
+		double trace = q[0] + q[4] + q[7];
+		double x, y, z;
+		if(Math.abs(determinant) > 1e-12 * trace * trace * trace) {
+			double c11 = q[0] * q[7] - q[2] * q[2];
+			double c12 = q[1] * q[2] - q[0] * q[5];
+			double c22 = q[0] * q[4] - q[1] * q[1];
+			x = -(c00 * q[3] + c01 * q[6] + c02 * q[8]) / determinant;
+			y = -(c01 * q[3] + c11 * q[6] + c12 * q[8]) / determinant;
+			z = -(c02 * q[3] + c12 * q[6] + c22 * q[8]) / determinant;
+		} else {
+			// flat quadric: the best of the two ends and the middle
+			a = _edgeA[e] * 3;
+			b = _edgeB[e] * 3;
+			x = _xyz[a]; y = _xyz[a+1]; z = _xyz[a+2];
+			double best = error(q, x, y, z);
+			double error = error(q, _xyz[b], _xyz[b+1], _xyz[b+2]);
+			if(error < best) {
+				best = error;
+				x = _xyz[b]; y = _xyz[b+1]; z = _xyz[b+2];
+			}
+			double mx = (_xyz[a] + _xyz[b]) / 2, my = (_xyz[a+1] + _xyz[b+1]) / 2, mz = (_xyz[a+2] + _xyz[b+2]) / 2;
+			if(error(q, mx, my, mz) < best) {
+				x = mx; y = my; z = mz;
+			}
+		}
+		_edgeTarget[e*3] = x;
+		_edgeTarget[e*3+1] = y;
+		_edgeTarget[e*3+2] = z;
+		return Math.max(0, error(q, x, y, z));
+	}
+
+	/**
+	 * @return
+	 * true if collapsing the edge keeps the mesh manifold and turns no triangle over.
+	 */
+	private boolean canCollapse(int e) {
+		int a = _edgeA[e], b = _edgeB[e];
+
+		// the faces of the edge, and the neighbours both vertices share
+		int shared = 0;
+		for(int i = 0; i < _vertexFaceCount[a]; i++) {
+			int f = _vertexFaces[a][i];
+			if(_faceAlive[f] && hasVertex(f, b))
+				shared++;
+		}
+		if(shared != 1 && _boundary[a] && _boundary[b])
+			return false; // an interior edge between two boundary vertices would pinch the mesh
+		int stamp = ++_stamp;
+		for(int i = 0; i < _vertexEdgeCount[a]; i++) {
+			int g = _vertexEdges[a][i];
+			if(_edgeAlive[g])
+				_mark[other(g, a)] = stamp;
+		}
+		int common = 0;
+		for(int i = 0; i < _vertexEdgeCount[b]; i++) {
+			int g = _vertexEdges[b][i];
+			if(_edgeAlive[g] && _mark[other(g, b)] == stamp)
+				common++;
+		}
+		if(common != shared)
+			return false;
+
+		double x = _edgeTarget[e*3], y = _edgeTarget[e*3+1], z = _edgeTarget[e*3+2];
+		return keepsOrientation(a, b, x, y, z) && keepsOrientation(b, a, x, y, z);
+	}
+
+	/**
+	 * @return
+	 * true if no face of v, other than those it shares with w, turns over when v moves to (x, y, z).
+	 */
+	private boolean keepsOrientation(int v, int w, double x, double y, double z) {
+		for(int i = 0; i < _vertexFaceCount[v]; i++) {
+			int f = _vertexFaces[v][i];
+			if(!_faceAlive[f] || hasVertex(f, w))
+				continue;
+			// the face as (v, p, q), in its order
+			int k = _triangles[f*3] == v ? 0 : _triangles[f*3+1] == v ? 1 : 2;
+			int p = _triangles[f*3 + (k + 1) % 3] * 3, q = _triangles[f*3 + (k + 2) % 3] * 3;
+			int o = v * 3;
+			double ex = _xyz[q] - _xyz[p], ey = _xyz[q+1] - _xyz[p+1], ez = _xyz[q+2] - _xyz[p+2];
+			// normals before and after, both as (p - v) x (q - v) = (q - p) x (v - p) up to sign
+			double ux = _xyz[o] - _xyz[p], uy = _xyz[o+1] - _xyz[p+1], uz = _xyz[o+2] - _xyz[p+2];
+			double nx = ey * uz - ez * uy, ny = ez * ux - ex * uz, nz = ex * uy - ey * ux;
+			ux = x - _xyz[p]; uy = y - _xyz[p+1]; uz = z - _xyz[p+2];
+			double mx = ey * uz - ez * uy, my = ez * ux - ex * uz, mz = ex * uy - ey * ux;
+			if(nx * mx + ny * my + nz * mz <= 0)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Merges the second vertex of the edge into the first, at the edge's target.
+	 */
+	private void collapse(int e) {
+		int u = _edgeA[e], v = _edgeB[e];
+		System.arraycopy(_edgeTarget, e*3, _xyz, u*3, 3);
+		for(int i = 0; i < 10; i++) {
+			_quadrics[u*10+i] += _quadrics[v*10+i];
+		}
+		_boundary[u] |= _boundary[v];
+
+		// the faces of the edge go; the other faces of v move to u
+		for(int i = 0; i < _vertexFaceCount[v]; i++) {
+			int f = _vertexFaces[v][i];
+			if(!_faceAlive[f])
+				continue;
+			if(hasVertex(f, u)) {
+				_faceAlive[f] = false;
+				_faceCount--;
+			} else {
+				for(int k = f*3; k < f*3+3; k++) {
+					if(_triangles[k] == v)
+						_triangles[k] = u;
+				}
+				addFace(u, f);
+			}
+		}
+		_vertexFaceCount[v] = 0;
+
+		// the edges of v move to u, unless u already has the same edge
+		int stamp = ++_stamp;
+		for(int i = 0; i < _vertexEdgeCount[u]; i++) {
+			int g = _vertexEdges[u][i];
+			if(_edgeAlive[g])
+				_mark[other(g, u)] = stamp;
+		}
+		for(int i = 0; i < _vertexEdgeCount[v]; i++) {
+			int g = _vertexEdges[v][i];
+			if(!_edgeAlive[g])
+				continue;
+			int w = other(g, v);
+			if(w == u || _mark[w] == stamp) {
+				_edgeAlive[g] = false;
+				_heap.remove(g);
+				if(w != u && _edgeLocked[g])
+					lockEdge(u, w);
+			} else {
+				if(_edgeA[g] == v)
+					_edgeA[g] = u;
+				else
+					_edgeB[g] = u;
+				addEdge(u, g);
+			}
+		}
+		_vertexEdgeCount[v] = 0;
+		compact(u);
+
+		// the costs around u changed; the edges of its neighbours may have become possible
+		for(int i = 0; i < _vertexEdgeCount[u]; i++) {
+			int g = _vertexEdges[u][i];
+			if(!_edgeLocked[g])
+				_heap.set(g, cost(g));
+			int w = other(g, u);
+			for(int j = 0; j < _vertexEdgeCount[w]; j++) {
+				int h = _vertexEdges[w][j];
+				if(_edgeAlive[h] && !_edgeLocked[h] && !_heap.contains(h))
+					_heap.set(h, cost(h));
+			}
+		}
+	}
+
+	/**
+	 * @return
+	 * The new mesh, made of the vertices and faces left.
+	 */
+	private IndexedTriangleMesh toMesh() {
+		int vertices = _xyz.length / 3;
+		int[] index = new int[vertices];
+		Arrays.fill(index, -1);
+		int[] triangles = new int[_faceCount * 3];
+		int count = 0, t = 0;
+		for(int f = 0; f < _faceAlive.length; f++) {
+			if(!_faceAlive[f])
+				continue;
+			for(int k = f*3; k < f*3+3; k++) {
+				int v = _triangles[k];
+				if(index[v] < 0)
+					index[v] = count++;
+				triangles[t++] = index[v];
+			}
+		}
+		double[] xyz = new double[count * 3];
+		for(int v = 0; v < vertices; v++) {
+			if(index[v] >= 0)
+				System.arraycopy(_xyz, v*3, xyz, index[v]*3, 3);
+		}
+		return new IndexedTriangleMesh(xyz, null, triangles);
+	}
+
+	private boolean hasVertex(int f, int v) {
+		return _triangles[f*3] == v || _triangles[f*3+1] == v || _triangles[f*3+2] == v;
+	}
+
+	private int other(int e, int v) {
+		return _edgeA[e] == v ? _edgeB[e] : _edgeA[e];
+	}
+
+	/**
+	 * Locks the live edge between u and w, which has taken the place of a locked one.
+	 */
+	private void lockEdge(int u, int w) {
+		for(int i = 0; i < _vertexEdgeCount[u]; i++) {
+			int g = _vertexEdges[u][i];
+			if(_edgeAlive[g] && other(g, u) == w) {
+				_edgeLocked[g] = true;
+				_heap.remove(g);
+			}
+		}
+	}
+
+	private void addFace(int v, int f) {
+		if(_vertexFaceCount[v] == _vertexFaces[v].length)
+			_vertexFaces[v] = Arrays.copyOf(_vertexFaces[v], _vertexFaces[v].length * 2);
+		_vertexFaces[v][_vertexFaceCount[v]++] = f;
+	}
+
+	private void addEdge(int v, int e) {
+		if(_vertexEdgeCount[v] == _vertexEdges[v].length)
+			_vertexEdges[v] = Arrays.copyOf(_vertexEdges[v], _vertexEdges[v].length * 2);
+		_vertexEdges[v][_vertexEdgeCount[v]++] = e;
+	}
+
+	/**
+	 * Removes the dead faces and edges from the lists of the vertex.
+	 */
+	private void compact(int v) {
+		int n = 0;
+		for(int i = 0; i < _vertexFaceCount[v]; i++) {
+			if(_faceAlive[_vertexFaces[v][i]])
+				_vertexFaces[v][n++] = _vertexFaces[v][i];
+		}
+		_vertexFaceCount[v] = n;
+		n = 0;
+		for(int i = 0; i < _vertexEdgeCount[v]; i++) {
+			if(_edgeAlive[_vertexEdges[v][i]])
+				_vertexEdges[v][n++] = _vertexEdges[v][i];
+		}
+		_vertexEdgeCount[v] = n;
+	}
+
+	/**
+	 * @return
+	 * The unit plane (a, b, c, d) of the triangle, ax + by + cz + d = 0, or null if it has no area.
+	 */
+	private double[] plane(int a, int b, int c) {
+		a *= 3; b *= 3; c *= 3;
+		double ux = _xyz[b] - _xyz[a], uy = _xyz[b+1] - _xyz[a+1], uz = _xyz[b+2] - _xyz[a+2];
+		double vx = _xyz[c] - _xyz[a], vy = _xyz[c+1] - _xyz[a+1], vz = _xyz[c+2] - _xyz[a+2];
+		return unitPlane(uy * vz - uz * vy, uz * vx - ux * vz, ux * vy - uy * vx, a);
+	}
+
+	/**
+	 * @return
+	 * The unit plane through the boundary edge (a, b) perpendicular to its face,
+	 * whose third vertex is c, or null if the face has no area.
+	 */
+	private double[] boundaryPlane(int a, int b, int c) {
+		double[] face = plane(a, b, c);
+		if(face == null)
+			return null;
+		a *= 3; b *= 3;
+		double ex = _xyz[b] - _xyz[a], ey = _xyz[b+1] - _xyz[a+1], ez = _xyz[b+2] - _xyz[a+2];
+		return unitPlane(ey * face[2] - ez * face[1], ez * face[0] - ex * face[2], ex * face[1] - ey * face[0], a);
+	}
+
+	/**
+	 * @return
+	 * The plane of normal (nx, ny, nz), normalized, through the point at offset p of the coordinates.
+	 */
+	private double[] unitPlane(double nx, double ny, double nz, int p) {
+		double length = Math.sqrt(nx * nx + ny * ny + nz * nz);
+		if(!(length > 0))
+			return null;
+		nx /= length; ny /= length; nz /= length;
+		return new double[] { nx, ny, nz, -(nx * _xyz[p] + ny * _xyz[p+1] + nz * _xyz[p+2]) };
+	}
+
+	/**
+	 * Adds the quadric of the plane, times the weight, to the quadric of the vertex.
+	 * The 10 coefficients are the upper triangle of the symmetric 4x4 matrix, row by row:
+	 * aa, ab, ac, ad, bb, bc, bd, cc, cd, dd.
+	 */
+	private void addPlane(int v, double[] p, double weight) {
+		int q = v * 10;
+		_quadrics[q] += weight * p[0] * p[0];
+		_quadrics[q+1] += weight * p[0] * p[1];
+		_quadrics[q+2] += weight * p[0] * p[2];
+		_quadrics[q+3] += weight * p[0] * p[3];
+		_quadrics[q+4] += weight * p[1] * p[1];
+		_quadrics[q+5] += weight * p[1] * p[2];
+		_quadrics[q+6] += weight * p[1] * p[3];
+		_quadrics[q+7] += weight * p[2] * p[2];
+		_quadrics[q+8] += weight * p[2] * p[3];
+		_quadrics[q+9] += weight * p[3] * p[3];
+	}
+
+	/**
+	 * @return
+	 * The error of the quadric at (x, y, z).
+	 */
+	private static double error(double[] q, double x, double y, double z) {
+		return q[0] * x * x + 2 * q[1] * x * y + 2 * q[2] * x * z + 2 * q[3] * x
+				+ q[4] * y * y + 2 * q[5] * y * z + 2 * q[6] * y
+				+ q[7] * z * z + 2 * q[8] * z + q[9];
+	}
+}
@@ -0,0 +1,195 @@
+package thor.model.geoset;
+
+import thor.graphics.Point3D;
+import thor.graphics.Vector3D;
+import thor.util.Parallel;
+
+/**
+ * The quantities derived from the positions of a mesh: its bounds, surface area,
+ * barycenter and surface centroid, all computed together in one pass over the
+ * vertices and one over the faces. Large meshes are split in ranges of vertices and
+ * faces that are reduced in parallel; the partial results are combined in order, so the
+ * result does not depend on the number of threads.
+ * <br />
+ * Faces are split into triangle fans from their first vertex, and the area of each
+ * triangle is found with Heron's formula, as {@link Mesh#heronFormula(Vertex, Vertex, Vertex)}.
+ * <br />
+ * {@link Mesh#getGeometry()} computes it lazily and keeps it until the mesh is moved or changed.
+ * It never changes once computed, so it can be read from several threads at once.
+ */
+public final class MeshGeometry {
+	/** Number of vertices, or faces, summed by each task. */
+	private static final int CHUNK_SIZE = 1 << 16;
+
+	private final int _vertexCount;
+	private final int _faceCount;
+	private final double _minX, _minY, _minZ;
+	private final double _maxX, _maxY, _maxZ;
+	private final double _area;
+	private final double _barycenterX, _barycenterY, _barycenterZ;
+	private final double _centroidX, _centroidY, _centroidZ;
+
+	/**
+	 * Computes the geometry of a mesh given as flat arrays.
+	 * @param xyz - x, y, z of each vertex
+	 * @param starts - the start of each face in indices, plus indices.length at the end;
+	 * or null if all the faces are triangles
+	 * @param indices - the vertices of all the faces, one after the other
+	 */
+	public static MeshGeometry compute(double[] xyz, int[] starts, int[] indices) {
+		return new MeshGeometry(xyz, starts != null ? starts : ManifoldChecker.triangleStarts(indices.length / 3), indices);
+	}
+
+	private MeshGeometry(final double[] p, final int[] starts, final int[] indices) {
+		_vertexCount = p.length / 3;
+		_faceCount = starts.length - 1;
+
+		// the bounds of each range of vertices, and the sums of each range of faces
+		final int vertexChunks = Math.max(1, (_vertexCount + CHUNK_SIZE - 1) / CHUNK_SIZE);
+		final int faceChunks = Math.max(1, (_faceCount + CHUNK_SIZE - 1) / CHUNK_SIZE);
+		final double[][] bounds = new double[vertexChunks][];
+		final double[][] sums = new double[faceChunks][];
+		Parallel.forRange(0, vertexChunks + faceChunks, 1, new Parallel.RangeTask() {
+			public void run(int from, int to) {
+				for(int c = from; c < to; c++) {
+					if(c < vertexChunks) {
+						bounds[c] = bounds(p, c * CHUNK_SIZE, Math.min(_vertexCount, (c + 1) * CHUNK_SIZE));
+					} else {
+						int chunk = c - vertexChunks;
+						sums[chunk] = sums(p, starts, indices, chunk * CHUNK_SIZE, Math.min(_faceCount, (chunk + 1) * CHUNK_SIZE));
+					}
+				}
+			}
+		});
+
+		double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY, minZ = Double.POSITIVE_INFINITY;
+		double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY, maxZ = Double.NEGATIVE_INFINITY;
+		for(double[] b : bounds) {
+			minX = Math.min(minX, b[0]); minY = Math.min(minY, b[1]); minZ = Math.min(minZ, b[2]);
+			maxX = Math.max(maxX, b[3]); maxY = Math.max(maxY, b[4]); maxZ = Math.max(maxZ, b[5]);
+		}
+		_minX = minX; _minY = minY; _minZ = minZ;
+		_maxX = maxX; _maxY = maxY; _maxZ = maxZ;
+
+		double area = 0, bx = 0, by = 0, bz = 0, cx = 0, cy = 0, cz = 0;
+		for(double[] sum : sums) {
+			area += sum[0];
+			bx += sum[1]; by += sum[2]; bz += sum[3];
+			cx += sum[4]; cy += sum[5]; cz += sum[6];
+		}
+		_area = area;
+		_barycenterX = bx / _faceCount; _barycenterY = by / _faceCount; _barycenterZ = bz / _faceCount;
+		if(area > 0) {
+			_centroidX = cx / area; _centroidY = cy / area; _centroidZ = cz / area;
+		} else {
+			_centroidX = _barycenterX; _centroidY = _barycenterY; _centroidZ = _barycenterZ;
+		}
+	}
+
+	/**
+	 * @return
+	 * The smallest x, y, z and the largest x, y, z of the vertices from to to - 1.
+	 */
+	private static double[] bounds(double[] p, int from, int to) {
+		double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY, minZ = Double.POSITIVE_INFINITY;
+		double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY, maxZ = Double.NEGATIVE_INFINITY;
+		for(int i = from * 3; i < to * 3; i += 3) {
+			minX = Math.min(minX, p[i]); maxX = Math.max(maxX, p[i]);
+			minY = Math.min(minY, p[i+1]); maxY = Math.max(maxY, p[i+1]);
+			minZ = Math.min(minZ, p[i+2]); maxZ = Math.max(maxZ, p[i+2]);
+		}
+		return new double[] { minX, minY, minZ, maxX, maxY, maxZ };
+	}
+
+	/**
+	 * @return
+	 * The area of the faces from to to - 1, the sum of their centers and
+	 * the sum of the centers of their triangles weighted by area.
+	 */
+	private static double[] sums(double[] p, int[] starts, int[] indices, int from, int to) {
+		double area = 0;
+		double bx = 0, by = 0, bz = 0; // sum of the face centers
+		double cx = 0, cy = 0, cz = 0; // sum of the triangle centers weighted by area
+		for(int f = from; f < to; f++) {
+			int first = starts[f], end = starts[f+1];
+			double fx = 0, fy = 0, fz = 0;
+			for(int k = first; k < end; k++) {
+				int v = indices[k] * 3;
+				fx += p[v]; fy += p[v+1]; fz += p[v+2];
+			}
+			int n = end - first;
+			bx += fx / n; by += fy / n; bz += fz / n;
+
+			int i = indices[first] * 3;
+			for(int k = first + 1; k + 1 < end; k++) {
+				int j = indices[k] * 3, l = indices[k+1] * 3;
+				double a = Vector3D.distance(p[i], p[i+1], p[i+2], p[j], p[j+1], p[j+2]);
+				double b = Vector3D.distance(p[j], p[j+1], p[j+2], p[l], p[l+1], p[l+2]);
+				double c = Vector3D.distance(p[l], p[l+1], p[l+2], p[i], p[i+1], p[i+2]);
+				double s = (a + b + c) * 0.5; // semiperimeter
+				double triangle = Math.sqrt(s*(s-a)*(s-b)*(s-c));
+				if(triangle > 0) { // NaN for degenerate triangles, from rounding
+					area += triangle;
+					cx += triangle * (p[i] + p[j] + p[l]) / 3;
+					cy += triangle * (p[i+1] + p[j+1] + p[l+1]) / 3;
+					cz += triangle * (p[i+2] + p[j+2] + p[l+2]) / 3;
+				}
+			}
+		}
+		return new double[] { area, bx, by, bz, cx, cy, cz };
+	}
+
+	/**
+	 * @return
+	 * The number of vertices of the mesh when the geometry was computed.
+	 */
+	public int countVertices() {
+		return _vertexCount;
+	}
+
+	/**
+	 * @return
+	 * The number of faces of the mesh when the geometry was computed.
+	 */
+	public int countFaces() {
+		return _faceCount;
+	}
+
+	/**
+	 * @return
+	 * The smallest x, y and z of the vertices; infinite if there are none.
+	 */
+	public Point3D getMinVertex() {
+		return new Point3D.Double(_minX, _minY, _minZ);
+	}
+
+	/**
+	 * @return
+	 * The largest x, y and z of the vertices; infinite if there are none.
+	 */
+	public Point3D getMaxVertex() {
+		return new Point3D.Double(_maxX, _maxY, _maxZ);
+	}
+
+	public double getSurfaceArea() {
+		return _area;
+	}
+
+	/**
+	 * @return
+	 * The mean of the centers of the faces, as {@link Mesh#getBarycenter()} has always been.
+	 */
+	public Point3D getBarycenter() {
+		return new Point3D.Double(_barycenterX, _barycenterY, _barycenterZ);
+	}
+
+	/**
+	 * @return
+	 * The center of mass of the surface: the mean of the centers of the triangles
+	 * weighted by their area. Unlike the barycenter, it does not depend on how
+	 * finely each part of the surface is tessellated.
+	 */
+	public Point3D getCentroid() {
+		return new Point3D.Double(_centroidX, _centroidY, _centroidZ);
+	}
+}
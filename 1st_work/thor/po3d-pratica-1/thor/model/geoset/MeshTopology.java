@@ -0,0 +1,365 @@
+package thor.model.geoset;
+
+import java.util.Arrays;
+
+/**
+ * The connectivity of a mesh: which faces and vertices surround each vertex,
+ * and which half-edges make each edge.
+ * <br />
+ * Each corner of a face is a half-edge, going from that corner's vertex to the next
+ * vertex of the face; half-edge h is the corner at position h of the flattened face indices,
+ * so the half-edges of face f are {@link #getFaceHalfEdge(int)} to that plus the face size minus one.
+ * Half-edges with the same two vertices, in either order, make one edge.
+ * <br />
+ * Everything is kept in int arrays in compressed sparse row form and built in one pass
+ * that sorts the half-edges by edge, after which every query takes constant time or time
+ * proportional to the degree of the vertex. A topology never changes once built,
+ * so it can be read from several threads at once.
+ * <br />
+ * {@link Mesh#getTopology()} builds it lazily and keeps it until the faces change.
+ */
+public final class MeshTopology {
+	private final int _vertexCount;
+	private final int[] _faceStarts;
+	private final int[] _indices;
+
+	private final int[] _halfEdgeFace;
+	private final int[] _halfEdgeEdge;
+	private final int[] _opposite;
+
+	// the half-edges of edge e are edgeHalfEdges[edgeStarts[e]] to edgeHalfEdges[edgeStarts[e+1]-1]
+	private final int[] _edgeStarts;
+	private final int[] _edgeHalfEdges;
+
+	// the half-edges leaving vertex v are vertexHalfEdges[vertexStarts[v]] to vertexHalfEdges[vertexStarts[v+1]-1]
+	private final int[] _vertexStarts;
+	private final int[] _vertexHalfEdges;
+
+	// the vertices sharing an edge with vertex v, sorted
+	private final int[] _neighbourStarts;
+	private final int[] _neighbours;
+
+	private volatile TopologyReport _report;
+
+	/**
+	 * Builds the topology of a mesh given as flat arrays; the arrays are kept, not copied.
+	 * @param vertices - the number of vertices of the mesh
+	 * @param starts - the start of each face in indices, plus indices.length at the end;
+	 * or null if all the faces are triangles
+	 * @param indices - the vertices of all the faces, one after the other
+	 */
+	public static MeshTopology build(int vertices, int[] starts, int[] indices) {
+		if(starts == null)
+			starts = ManifoldChecker.triangleStarts(indices.length / 3);
+		return new MeshTopology(vertices, starts, indices);
+	}
+
+	private MeshTopology(int vertices, int[] starts, int[] indices) {
+		final int halfEdges = indices.length;
+		final int faces = starts.length - 1;
+		_vertexCount = vertices;
+		_faceStarts = starts;
+		_indices = indices;
+
+		_halfEdgeFace = new int[halfEdges];
+		for(int f = 0; f < faces; f++) {
+			Arrays.fill(_halfEdgeFace, starts[f], starts[f+1], f);
+		}
+
+		// bucket the half-edges by their smaller vertex, then sort each bucket by the larger one
+		int[] low = new int[vertices + 1];
+		for(int h = 0; h < halfEdges; h++) {
+			low[Math.min(indices[h], target(h)) + 1]++;
+		}
+		for(int v = 0; v < vertices; v++) {
+			low[v+1] += low[v];
+		}
+		long[] sorted = new long[halfEdges];
+		int[] fill = Arrays.copyOf(low, vertices);
+		for(int h = 0; h < halfEdges; h++) {
+			int a = indices[h], b = target(h);
+			sorted[fill[Math.min(a, b)]++] = ((long) Math.max(a, b) << 32) | h;
+		}
+		for(int v = 0; v < vertices; v++) {
+			if(low[v+1] - low[v] > 1)
+				Arrays.sort(sorted, low[v], low[v+1]);
+		}
+
+		// runs of equal keys are the edges
+		_halfEdgeEdge = new int[halfEdges];
+		_opposite = new int[halfEdges];
+		_edgeHalfEdges = new int[halfEdges];
+		int[] edgeStarts = new int[halfEdges + 1];
+		int[] neighbourCounts = new int[vertices + 1];
+		int edges = 0;
+		for(int v = 0; v < vertices; v++) {
+			for(int i = low[v]; i < low[v+1]; ) {
+				int high = (int) (sorted[i] >>> 32);
+				int end = i + 1;
+				while(end < low[v+1] && (int) (sorted[end] >>> 32) == high) {
+					end++;
+				}
+				edgeStarts[edges] = i;
+				for(int k = i; k < end; k++) {
+					int h = (int) sorted[k];
+					_edgeHalfEdges[k] = h;
+					_halfEdgeEdge[h] = edges;
+					_opposite[h] = -1;
+				}
+				if(end - i == 2) {
+					_opposite[_edgeHalfEdges[i]] = _edgeHalfEdges[i+1];
+					_opposite[_edgeHalfEdges[i+1]] = _edgeHalfEdges[i];
+				}
+				if(high != v) {
+					neighbourCounts[v+1]++;
+					neighbourCounts[high+1]++;
+				}
+				edges++;
+				i = end;
+			}
+		}
+		edgeStarts[edges] = halfEdges;
+		_edgeStarts = Arrays.copyOf(edgeStarts, edges + 1);
+
+		// the neighbours come out sorted: smaller ones are added while going through their buckets, before the larger ones
+		for(int v = 0; v < vertices; v++) {
+			neighbourCounts[v+1] += neighbourCounts[v];
+		}
+		_neighbourStarts = neighbourCounts;
+		_neighbours = new int[neighbourCounts[vertices]];
+		fill = Arrays.copyOf(neighbourCounts, vertices);
+		for(int e = 0; e < edges; e++) {
+			int h = _edgeHalfEdges[_edgeStarts[e]];
+			int a = indices[h], b = target(h);
+			if(a == b)
+				continue;
+			int v = Math.min(a, b), w = Math.max(a, b);
+			_neighbours[fill[v]++] = w;
+			_neighbours[fill[w]++] = v;
+		}
+
+		_vertexStarts = new int[vertices + 1];
+		for(int h = 0; h < halfEdges; h++) {
+			_vertexStarts[indices[h] + 1]++;
+		}
+		for(int v = 0; v < vertices; v++) {
+			_vertexStarts[v+1] += _vertexStarts[v];
+		}
+		_vertexHalfEdges = new int[halfEdges];
+		fill = Arrays.copyOf(_vertexStarts, vertices);
+		for(int h = 0; h < halfEdges; h++) {
+			_vertexHalfEdges[fill[indices[h]]++] = h;
+		}
+	}
+
+	public int countVertices() {
+		return _vertexCount;
+	}
+
+	public int countFaces() {
+		return _faceStarts.length - 1;
+	}
+
+	/**
+	 * @return
+	 * The number of distinct edges, the vertex order of an edge being ignored.
+	 */
+	public int countEdges() {
+		return _edgeStarts.length - 1;
+	}
+
+	public int countHalfEdges() {
+		return _indices.length;
+	}
+
+	/**
+	 * @return
+	 * The number of vertices of the face.
+	 */
+	public int getFaceSize(int face) {
+		return _faceStarts[face+1] - _faceStarts[face];
+	}
+
+	/**
+	 * @return
+	 * The half-edge leaving the first vertex of the face.
+	 */
+	public int getFaceHalfEdge(int face) {
+		return _faceStarts[face];
+	}
+
+	/**
+	 * @return
+	 * The vertex the half-edge leaves.
+	 */
+	public int getOrigin(int halfEdge) {
+		return _indices[halfEdge];
+	}
+
+	/**
+	 * @return
+	 * The vertex the half-edge goes to.
+	 */
+	public int getTarget(int halfEdge) {
+		return target(halfEdge);
+	}
+
+	public int getFace(int halfEdge) {
+		return _halfEdgeFace[halfEdge];
+	}
+
+	/**
+	 * @return
+	 * The half-edge that follows this one around its face.
+	 */
+	public int getNext(int halfEdge) {
+		int face = _halfEdgeFace[halfEdge];
+		return halfEdge + 1 == _faceStarts[face+1] ? _faceStarts[face] : halfEdge + 1;
+	}
+
+	/**
+	 * @return
+	 * The half-edge that comes before this one around its face.
+	 */
+	public int getPrevious(int halfEdge) {
+		int face = _halfEdgeFace[halfEdge];
+		return halfEdge == _faceStarts[face] ? _faceStarts[face+1] - 1 : halfEdge - 1;
+	}
+
+	/**
+	 * @return
+	 * The other half-edge of the same edge, or -1 if the edge is on the boundary or
+	 * belongs to more than two faces.
+	 */
+	public int getOpposite(int halfEdge) {
+		return _opposite[halfEdge];
+	}
+
+	/**
+	 * @return
+	 * The edge the half-edge belongs to, from 0 to {@link #countEdges()} - 1.
+	 */
+	public int getEdge(int halfEdge) {
+		return _halfEdgeEdge[halfEdge];
+	}
+
+	/**
+	 * @return
+	 * The number of faces that have the edge (more precisely, of half-edges that make it).
+	 */
+	public int countEdgeFaces(int edge) {
+		return _edgeStarts[edge+1] - _edgeStarts[edge];
+	}
+
+	/**
+	 * @return
+	 * The i-th half-edge of the edge, from 0 to {@link #countEdgeFaces(int)} - 1.
+	 */
+	public int getEdgeHalfEdge(int edge, int i) {
+		return _edgeHalfEdges[_edgeStarts[edge] + i];
+	}
+
+	/**
+	 * @return
+	 * true if the edge belongs to a single face.
+	 */
+	public boolean isBoundaryEdge(int edge) {
+		return countEdgeFaces(edge) == 1;
+	}
+
+	/**
+	 * @return
+	 * The number of face corners at the vertex, which is the number of its faces
+	 * unless a face has the vertex more than once.
+	 */
+	public int countVertexFaces(int vertex) {
+		return _vertexStarts[vertex+1] - _vertexStarts[vertex];
+	}
+
+	/**
+	 * @return
+	 * The face of the i-th corner of the vertex, from 0 to {@link #countVertexFaces(int)} - 1.
+	 * The faces are in increasing order.
+	 */
+	public int getVertexFace(int vertex, int i) {
+		return _halfEdgeFace[_vertexHalfEdges[_vertexStarts[vertex] + i]];
+	}
+
+	/**
+	 * @return
+	 * The half-edge leaving the i-th corner of the vertex, from 0 to {@link #countVertexFaces(int)} - 1.
+	 */
+	public int getVertexHalfEdge(int vertex, int i) {
+		return _vertexHalfEdges[_vertexStarts[vertex] + i];
+	}
+
+	/**
+	 * @return
+	 * The number of vertices that share an edge with the vertex.
+	 */
+	public int countNeighbours(int vertex) {
+		return _neighbourStarts[vertex+1] - _neighbourStarts[vertex];
+	}
+
+	/**
+	 * @return
+	 * The i-th vertex that shares an edge with the vertex, from 0 to {@link #countNeighbours(int)} - 1,
+	 * in increasing order.
+	 */
+	public int getNeighbour(int vertex, int i) {
+		return _neighbours[_neighbourStarts[vertex] + i];
+	}
+
+	/**
+	 * @return
+	 * The position of the other vertex among the neighbours of the vertex, or a negative number
+	 * if they share no edge (as {@link Arrays#binarySearch(int[], int, int, int)}).
+	 */
+	public int indexOfNeighbour(int vertex, int other) {
+		int from = _neighbourStarts[vertex];
+		int index = Arrays.binarySearch(_neighbours, from, _neighbourStarts[vertex+1], other);
+		return index >= 0 ? index - from : index + from;
+	}
+
+	/**
+	 * @return
+	 * The report of {@link MeshValidator} on this topology, made on the first call.
+	 */
+	public TopologyReport getReport() {
+		TopologyReport report = _report;
+		if(report == null) {
+			report = MeshValidator.validate(this);
+			_report = report;
+		}
+		return report;
+	}
+
+	/**
+	 * @return
+	 * true if the mesh is manifold, from {@link #getReport()}.
+	 */
+	public boolean isManifold() {
+		return getReport().isManifold();
+	}
+
+	/**
+	 * @return
+	 * The start of each face in {@link #getIndices()}, plus the number of indices at the end.
+	 * The array must not be changed.
+	 */
+	int[] getFaceStarts() {
+		return _faceStarts;
+	}
+
+	/**
+	 * @return
+	 * The vertices of all the faces, one after the other. The array must not be changed.
+	 */
+	int[] getIndices() {
+		return _indices;
+	}
+
+	private int target(int halfEdge) {
+		return _indices[getNext(halfEdge)];
+	}
+}
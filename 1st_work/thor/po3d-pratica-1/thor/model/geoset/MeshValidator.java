@@ -0,0 +1,109 @@
+package thor.model.geoset;
+
+import java.util.Arrays;
+
+import thor.util.Parallel;
+
+/**
+ * Validates the topology of a mesh on all the threads of the shared pool.
+ * <br />
+ * The edges and the vertices of the {@link MeshTopology} are split in ranges that are
+ * swept in parallel, in a single pass: the edge ranges collect the boundary and
+ * singular edges, the vertex ranges count the fans of each vertex (as
+ * {@link ManifoldChecker}) to collect the singular ones. The findings of the ranges
+ * are then concatenated in order into a {@link TopologyReport}, so the report does not
+ * depend on the number of threads.
+ */
+public final class MeshValidator {
+	/** Number of edges or vertices swept by each task. */
+	private static final int CHUNK_SIZE = 1 << 15;
+
+	/** The edges or vertices found by one range. */
+	private static class IntBlock {
+		int[] values = new int[16];
+		int count = 0;
+
+		void add(int value) {
+			if(count == values.length)
+				values = Arrays.copyOf(values, count * 2);
+			values[count++] = value;
+		}
+	}
+
+	private MeshValidator() { }
+
+	/**
+	 * Validates the topology of the mesh, building it if needed (see {@link Mesh#getTopology()}).
+	 */
+	public static TopologyReport validate(Mesh mesh) {
+		return validate(mesh.getTopology());
+	}
+
+	public static TopologyReport validate(final MeshTopology topology) {
+		final int edges = topology.countEdges();
+		final int vertices = topology.countVertices();
+		final int edgeChunks = (edges + CHUNK_SIZE - 1) / CHUNK_SIZE;
+		final int vertexChunks = (vertices + CHUNK_SIZE - 1) / CHUNK_SIZE;
+
+		final IntBlock[] boundaryEdges = new IntBlock[edgeChunks];
+		final IntBlock[] singularEdges = new IntBlock[edgeChunks];
+		final IntBlock[] singularVertices = new IntBlock[vertexChunks];
+		final int[] isolatedVertices = new int[vertexChunks];
+
+		Parallel.forRange(0, edgeChunks + vertexChunks, 1, new Parallel.RangeTask() {
+			public void run(int from, int to) {
+				for(int c = from; c < to; c++) {
+					if(c < edgeChunks) {
+						IntBlock boundary = new IntBlock();
+						IntBlock singular = new IntBlock();
+						for(int e = c * CHUNK_SIZE, end = Math.min(edges, e + CHUNK_SIZE); e < end; e++) {
+							int faces = topology.countEdgeFaces(e);
+							if(faces == 1)
+								boundary.add(e);
+							else if(faces > 2)
+								singular.add(e);
+						}
+						boundaryEdges[c] = boundary;
+						singularEdges[c] = singular;
+					} else {
+						int chunk = c - edgeChunks;
+						int first = chunk * CHUNK_SIZE, end = Math.min(vertices, first + CHUNK_SIZE);
+						int[] parent = new int[ManifoldChecker.maxNeighbours(topology, first, end) + 1];
+						IntBlock singular = new IntBlock();
+						int isolated = 0;
+						for(int v = first; v < end; v++) {
+							int fans = ManifoldChecker.countFans(topology, v, parent);
+							if(fans == 0)
+								isolated++;
+							else if(fans > 1)
+								singular.add(v);
+						}
+						singularVertices[chunk] = singular;
+						isolatedVertices[chunk] = isolated;
+					}
+				}
+			}
+		});
+
+		int isolated = 0;
+		for(int count : isolatedVertices) {
+			isolated += count;
+		}
+		return new TopologyReport(topology, concatenate(boundaryEdges), concatenate(singularEdges),
+				concatenate(singularVertices), isolated);
+	}
+
+	private static int[] concatenate(IntBlock[] blocks) {
+		int length = 0;
+		for(IntBlock block : blocks) {
+			length += block.count;
+		}
+		int[] values = new int[length];
+		int k = 0;
+		for(IntBlock block : blocks) {
+			System.arraycopy(block.values, 0, values, k, block.count);
+			k += block.count;
+		}
+		return values;
+	}
+}
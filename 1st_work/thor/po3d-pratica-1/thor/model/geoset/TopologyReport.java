@@ -0,0 +1,124 @@
+package thor.model.geoset;
+
+/**
+ * What {@link MeshValidator} found about the topology of a mesh: whether it is manifold
+ * and, if not, where it is not.
+ * <br />
+ * Edges are identified by their index in the {@link MeshTopology} the report was made from,
+ * which {@link #getTopology()} returns to look up their vertices and faces.
+ */
+public final class TopologyReport {
+	private final MeshTopology _topology;
+	private final int[] _boundaryEdges;
+	private final int[] _singularEdges;
+	private final int[] _singularVertices;
+	private final int _isolatedVertices;
+
+	TopologyReport(MeshTopology topology, int[] boundaryEdges, int[] singularEdges, int[] singularVertices, int isolatedVertices) {
+		_topology = topology;
+		_boundaryEdges = boundaryEdges;
+		_singularEdges = singularEdges;
+		_singularVertices = singularVertices;
+		_isolatedVertices = isolatedVertices;
+	}
+
+	/**
+	 * @return
+	 * The topology the report was made from.
+	 */
+	public MeshTopology getTopology() {
+		return _topology;
+	}
+
+	/**
+	 * @return
+	 * true if no edge belongs to more than two faces and the faces around every vertex
+	 * form a single fan, the same answer as {@link Mesh#isManifold()}.
+	 */
+	public boolean isManifold() {
+		return _singularEdges.length == 0 && _singularVertices.length == 0;
+	}
+
+	/**
+	 * @return
+	 * true if every edge belongs to at least two faces.
+	 */
+	public boolean isClosed() {
+		return _boundaryEdges.length == 0;
+	}
+
+	public int countVertices() {
+		return _topology.countVertices();
+	}
+
+	public int countFaces() {
+		return _topology.countFaces();
+	}
+
+	public int countEdges() {
+		return _topology.countEdges();
+	}
+
+	/**
+	 * @return
+	 * The number of edges that belong to a single face.
+	 */
+	public int countBoundaryEdges() {
+		return _boundaryEdges.length;
+	}
+
+	/**
+	 * @return
+	 * The number of edges that belong to more than two faces.
+	 */
+	public int countSingularEdges() {
+		return _singularEdges.length;
+	}
+
+	/**
+	 * @return
+	 * The number of vertices whose faces form more than one fan.
+	 */
+	public int countSingularVertices() {
+		return _singularVertices.length;
+	}
+
+	/**
+	 * @return
+	 * The number of vertices that belong to no face.
+	 */
+	public int countIsolatedVertices() {
+		return _isolatedVertices;
+	}
+
+	/**
+	 * @return
+	 * The edges that belong to a single face, in increasing order. The array must not be changed.
+	 */
+	public int[] getBoundaryEdges() {
+		return _boundaryEdges;
+	}
+
+	/**
+	 * @return
+	 * The edges that belong to more than two faces, in increasing order. The array must not be changed.
+	 */
+	public int[] getSingularEdges() {
+		return _singularEdges;
+	}
+
+	/**
+	 * @return
+	 * The vertices whose faces form more than one fan, in increasing order. The array must not be changed.
+	 */
+	public int[] getSingularVertices() {
+		return _singularVertices;
+	}
+
+	@Override
+	public String toString() {
+		return (isManifold() ? "manifold" : "not manifold") + ", " + countVertices() + " vertices, " + countFaces() + " faces, "
+				+ countEdges() + " edges: " + countBoundaryEdges() + " boundary edges, " + countSingularEdges() + " singular edges, "
+				+ countSingularVertices() + " singular vertices, " + countIsolatedVertices() + " isolated vertices";
+	}
+}
@@ -0,0 +1,175 @@
+package thor.model.geoset;
+
+import thor.util.Parallel;
+
+/**
+ * Computes the normals of the faces and vertices of a mesh given as flat arrays:
+ * the x, y, z of each vertex one after the other, and the faces as
+ * {@link MeshTopology} has them, face j being made of the vertices
+ * indices[starts[j]] to indices[starts[j+1]-1].
+ * <br />
+ * The normal of a face is found with Newell's method, which works for faces of any
+ * number of vertices, even if they are not quite planar, and whose length is twice
+ * the area of the face. The normal of a vertex is the normalized sum of the normals of
+ * its faces, weighted as chosen by {@link Weighting}.
+ * <br />
+ * The faces are split among the threads of the shared pool, each adding into its own
+ * buffer; the buffers are then summed and normalized, again in parallel, over ranges of vertices.
+ */
+public final class VertexNormals {
+	/** How much each face counts towards the normals of its vertices. */
+	public enum Weighting {
+		/** All the faces count the same. */
+		UNIFORM,
+		/** Faces count by their area. */
+		AREA,
+		/** Faces count by the angle of their corner at the vertex. */
+		ANGLE
+	}
+
+	/** Meshes with less faces than this are done on the calling thread. */
+	private static final int PARALLEL_THRESHOLD = 1 << 16;
+	/** Number of vertices normalized by each task. */
+	private static final int VERTEX_CHUNK_SIZE = 1 << 15;
+
+	private VertexNormals() { }
+
+	/**
+	 * Computes the unit normal of every face. Degenerate faces get a zero normal.
+	 * @param out - receives nx, ny, nz of each face, or null to allocate it
+	 * @return out
+	 */
+	public static float[] computeFaceNormals(final double[] xyz, final int[] starts, final int[] indices, float[] out) {
+		final int faces = starts.length - 1;
+		final float[] normals = out != null ? out : new float[faces * 3];
+		Parallel.forRange(0, faces, PARALLEL_THRESHOLD, new Parallel.RangeTask() {
+			public void run(int from, int to) {
+				double[] n = new double[3];
+				for(int f = from; f < to; f++) {
+					newell(xyz, indices, starts[f], starts[f+1], n);
+					double length = Math.sqrt(n[0] * n[0] + n[1] * n[1] + n[2] * n[2]);
+					if(length > 0) {
+						normals[f*3] = (float) (n[0] / length);
+						normals[f*3+1] = (float) (n[1] / length);
+						normals[f*3+2] = (float) (n[2] / length);
+					} else {
+						normals[f*3] = normals[f*3+1] = normals[f*3+2] = 0;
+					}
+				}
+			}
+		});
+		return normals;
+	}
+
+	/**
+	 * Computes the unit normal of every vertex. Vertices of no face, or only of
+	 * degenerate ones, get a zero normal.
+	 * @param starts - the start of each face in indices, plus indices.length at the end;
+	 * or null if all the faces are triangles
+	 * @param out - receives nx, ny, nz of each vertex, or null to allocate it
+	 * @return out
+	 */
+	public static float[] computeVertexNormals(final double[] xyz, int[] starts, final int[] indices,
+			final Weighting weighting, float[] out) {
+		final int vertices = xyz.length / 3;
+		final float[] normals = out != null ? out : new float[vertices * 3];
+		final int[] faceStarts = starts != null ? starts : ManifoldChecker.triangleStarts(indices.length / 3);
+		final int faces = faceStarts.length - 1;
+
+		// each worker adds the normals of a range of faces into its own buffer
+		final int workers = faces < PARALLEL_THRESHOLD ? 1 : Math.min(Parallel.getParallelism(), faces / PARALLEL_THRESHOLD + 1);
+		final double[][] sums = new double[workers][];
+		Parallel.forRange(0, workers, 1, new Parallel.RangeTask() {
+			public void run(int from, int to) {
+				for(int w = from; w < to; w++) {
+					double[] sum = new double[vertices * 3];
+					accumulate(xyz, faceStarts, indices, weighting,
+							(int) ((long) faces * w / workers), (int) ((long) faces * (w + 1) / workers), sum);
+					sums[w] = sum;
+				}
+			}
+		});
+
+		Parallel.forRange(0, vertices, VERTEX_CHUNK_SIZE, new Parallel.RangeTask() {
+			public void run(int from, int to) {
+				for(int v = from; v < to; v++) {
+					double x = 0, y = 0, z = 0;
+					for(double[] sum : sums) {
+						x += sum[v*3];
+						y += sum[v*3+1];
+						z += sum[v*3+2];
+					}
+					double length = Math.sqrt(x * x + y * y + z * z);
+					if(length > 0) {
+						normals[v*3] = (float) (x / length);
+						normals[v*3+1] = (float) (y / length);
+						normals[v*3+2] = (float) (z / length);
+					} else {
+						normals[v*3] = normals[v*3+1] = normals[v*3+2] = 0;
+					}
+				}
+			}
+		});
+		return normals;
+	}
+
+	/**
+	 * Adds the weighted normals of the faces from to to - 1 to the sums of their vertices.
+	 */
+	private static void accumulate(double[] xyz, int[] starts, int[] indices, Weighting weighting, int from, int to, double[] sum) {
+		double[] n = new double[3];
+		for(int f = from; f < to; f++) {
+			int first = starts[f], end = starts[f+1];
+			newell(xyz, indices, first, end, n);
+			double nx = n[0], ny = n[1], nz = n[2];
+			if(weighting != Weighting.AREA) {
+				double length = Math.sqrt(nx * nx + ny * ny + nz * nz);
+				if(length == 0)
+					continue;
+				nx /= length; ny /= length; nz /= length;
+			}
+			for(int k = first; k < end; k++) {
+				int v = indices[k] * 3;
+				double weight = 1;
+				if(weighting == Weighting.ANGLE) {
+					int previous = indices[k == first ? end - 1 : k - 1] * 3;
+					int next = indices[k + 1 == end ? first : k + 1] * 3;
+					weight = angle(xyz, v, previous, next);
+				}
+				sum[v] += nx * weight;
+				sum[v+1] += ny * weight;
+				sum[v+2] += nz * weight;
+			}
+		}
+	}
+
+	/**
+	 * Newell's normal of the face made of indices[first] to indices[end-1], whose length
+	 * is twice the area of the face.
+	 */
+	static void newell(double[] xyz, int[] indices, int first, int end, double[] n) {
+		double nx = 0, ny = 0, nz = 0;
+		int p = indices[end - 1] * 3;
+		for(int k = first; k < end; k++) {
+			int q = indices[k] * 3;
+			nx += (xyz[p+1] - xyz[q+1]) * (xyz[p+2] + xyz[q+2]);
+			ny += (xyz[p+2] - xyz[q+2]) * (xyz[p] + xyz[q]);
+			nz += (xyz[p] - xyz[q]) * (xyz[p+1] + xyz[q+1]);
+			p = q;
+		}
+		n[0] = nx;
+		n[1] = ny;
+		n[2] = nz;
+	}
+
+	/**
+	 * @return
+	 * The angle at vertex v between the edges to a and to b, in radians.
+	 */
+	private static double angle(double[] xyz, int v, int a, int b) {
+		double ax = xyz[a] - xyz[v], ay = xyz[a+1] - xyz[v+1], az = xyz[a+2] - xyz[v+2];
+		double bx = xyz[b] - xyz[v], by = xyz[b+1] - xyz[v+1], bz = xyz[b+2] - xyz[v+2];
+		double cx = ay * bz - az * by, cy = az * bx - ax * bz, cz = ax * by - ay * bx;
+		return Math.atan2(Math.sqrt(cx * cx + cy * cy + cz * cz), ax * bx + ay * by + az * bz);
+	}
+}
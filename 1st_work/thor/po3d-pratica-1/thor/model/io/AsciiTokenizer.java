@@ -0,0 +1,331 @@
+package thor.model.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * A tokenizer for the whitespace separated numbers of ascii model files.
+ * The input is copied in blocks into a reused byte window and the numbers are
+ * parsed in place, so no Scanner, String or boxed value is created per token.
+ * <br />
+ * Decimal numbers with up to 15 significant digits and small exponents are
+ * converted exactly as {@link Double#parseDouble(String)} would; anything
+ * else (more digits, nan, inf) falls back to it.
+ */
+class AsciiTokenizer {
+	private static final int WINDOW_SIZE = 64 * 1024;
+	/** Powers of ten that are exactly representable as a double. */
+	private static final double[] POWERS_OF_TEN = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+		1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+	};
+
+	private final ByteBuffer _buffer;
+	private final InputStream _stream;
+	private final byte[] _window = new byte[WINDOW_SIZE];
+	private int _pos = 0;
+	private int _limit = 0;
+	private final StringBuilder _slowToken = new StringBuilder();
+
+	/**
+	 * Creates a tokenizer over the remaining bytes of the buffer.
+	 * The buffer's position is advanced as the window is refilled.
+	 */
+	public AsciiTokenizer(ByteBuffer buffer) {
+		_buffer = buffer;
+		_stream = null;
+	}
+	/**
+	 * Creates a tokenizer over the bytes of the stream.
+	 */
+	public AsciiTokenizer(InputStream stream) {
+		_buffer = null;
+		_stream = stream;
+	}
+
+	/**
+	 * Refills the window with the next block of input.
+	 * @return false if there is no more input.
+	 */
+	private boolean fill() throws IOException {
+		_pos = 0;
+		_limit = 0;
+		if(_buffer != null) {
+			int n = Math.min(_buffer.remaining(), _window.length);
+			_buffer.get(_window, 0, n);
+			_limit = n;
+		} else {
+			int n = _stream.read(_window, 0, _window.length);
+			while(n == 0) {
+				n = _stream.read(_window, 0, _window.length);
+			}
+			_limit = Math.max(n, 0);
+		}
+		return _limit > 0;
+	}
+
+	/**
+	 * @return the next byte without consuming it, or -1 at the end of the input.
+	 */
+	private int peek() throws IOException {
+		if(_pos == _limit && !fill())
+			return -1;
+		return _window[_pos];
+	}
+
+	private static boolean isSpace(int c) {
+		return c == ' ' || c == '\t' || c == '\r' || c == '\n' || c == '\f';
+	}
+
+	/**
+	 * Skips whitespace, including line ends.
+	 * @return false if the end of the input was reached.
+	 */
+	public boolean skipWhitespace() throws IOException {
+		while(true) {
+			while(_pos < _limit) {
+				if(!isSpace(_window[_pos]))
+					return true;
+				_pos++;
+			}
+			if(!fill())
+				return false;
+		}
+	}
+
+	/**
+	 * Skips the rest of the current line, including its line end.
+	 * @return false if the end of the input was reached.
+	 */
+	public boolean skipLine() throws IOException {
+		while(true) {
+			while(_pos < _limit) {
+				if(_window[_pos++] == '\n')
+					return true;
+			}
+			if(!fill())
+				return false;
+		}
+	}
+
+	/**
+	 * Skips the next token.
+	 */
+	public void skipToken() throws IOException {
+		if(!skipWhitespace())
+			throw new IOException("ModelReader: unexpected end of file");
+		int c;
+		while((c = peek()) != -1 && !isSpace(c)) {
+			_pos++;
+		}
+	}
+
+	/**
+	 * Skips whitespace and the lines that start with the comment character.
+	 * @return false if the end of the input was reached.
+	 */
+	public boolean skipComments(char comment) throws IOException {
+		while(skipWhitespace()) {
+			if(_window[_pos] != comment)
+				return true;
+			skipLine();
+		}
+		return false;
+	}
+
+	/**
+	 * Skips spaces and tabs, but not line ends, and returns the next byte without consuming it.
+	 * @return the next byte, '\n' at the end of the line, or -1 at the end of the input.
+	 */
+	public int peekOnLine() throws IOException {
+		int c;
+		while((c = peek()) != -1 && c != '\n' && isSpace(c)) {
+			_pos++;
+		}
+		return c;
+	}
+
+	/**
+	 * Reads the next token as a keyword, such as the "v" or "f" that start the lines
+	 * of an OBJ file, without creating a String.
+	 * @return the bytes of the token packed in an int, the first byte highest, as
+	 * {@link #keyword(String)} does; 0 for tokens longer than 4 bytes; -1 at the end of the input.
+	 */
+	public int nextKeyword() throws IOException {
+		if(!skipWhitespace())
+			return -1;
+		int key = 0;
+		int length = 0;
+		int c;
+		while((c = peek()) != -1 && !isSpace(c)) {
+			key = (key << 8) | (c & 0xFF);
+			length++;
+			_pos++;
+		}
+		return length <= 4 ? key : 0;
+	}
+
+	/**
+	 * @return
+	 * The keyword as returned by {@link #nextKeyword()}, e.g. for use as a switch constant.
+	 */
+	public static int keyword(String token) {
+		int key = 0;
+		for(int i = 0; i < token.length(); i++) {
+			key = (key << 8) | (token.charAt(i) & 0xFF);
+		}
+		return key;
+	}
+
+	/**
+	 * Parses the next token as an int.
+	 */
+	public int nextInt() throws IOException {
+		return parseInt(false);
+	}
+
+	/**
+	 * Parses the int that starts the next token and skips the rest of the token,
+	 * e.g. the vertex index of an OBJ face corner such as "12/5/7".
+	 */
+	public int nextIndex() throws IOException {
+		return parseInt(true);
+	}
+
+	private int parseInt(boolean skipRest) throws IOException {
+		if(!skipWhitespace())
+			throw new IOException("ModelReader: unexpected end of file");
+		boolean negative = false;
+		int c = peek();
+		if(c == '-' || c == '+') {
+			negative = c == '-';
+			_pos++;
+			c = peek();
+		}
+		if(c < '0' || c > '9')
+			throw new IOException("ModelReader: expected an integer");
+		long value = 0;
+		while(c >= '0' && c <= '9') {
+			value = value * 10 + (c - '0');
+			_pos++;
+			c = peek();
+		}
+		if(skipRest) {
+			while(c != -1 && !isSpace(c)) {
+				_pos++;
+				c = peek();
+			}
+		}
+		if(c != -1 && !isSpace(c))
+			throw new IOException("ModelReader: expected an integer");
+		return (int) (negative ? -value : value);
+	}
+
+	/**
+	 * Parses the next token as a double.
+	 */
+	public double nextDouble() throws IOException {
+		if(!skipWhitespace())
+			throw new IOException("ModelReader: unexpected end of file");
+		_slowToken.setLength(0);
+
+		boolean negative = false;
+		int c = peek();
+		if(c == '-' || c == '+') {
+			negative = c == '-';
+			_slowToken.append((char) c);
+			_pos++;
+			c = peek();
+		}
+		long mantissa = 0;
+		int digits = 0;		// significant digits in mantissa
+		int exponent = 0;	// decimal exponent to apply to mantissa
+		boolean any = false;
+		while(c >= '0' && c <= '9') {
+			any = true;
+			if(digits > 0 || c != '0') {
+				if(digits < 18) {
+					mantissa = mantissa * 10 + (c - '0');
+				} else {
+					exponent++;
+				}
+				digits++;
+			}
+			_slowToken.append((char) c);
+			_pos++;
+			c = peek();
+		}
+		if(c == '.') {
+			_slowToken.append('.');
+			_pos++;
+			c = peek();
+			while(c >= '0' && c <= '9') {
+				any = true;
+				if(digits > 0 || c != '0') {
+					if(digits < 18) {
+						mantissa = mantissa * 10 + (c - '0');
+						exponent--;
+					}
+					digits++;
+				} else {
+					exponent--;
+				}
+				_slowToken.append((char) c);
+				_pos++;
+				c = peek();
+			}
+		}
+		if(any && (c == 'e' || c == 'E')) {
+			_slowToken.append((char) c);
+			_pos++;
+			c = peek();
+			boolean negativeExp = false;
+			if(c == '-' || c == '+') {
+				negativeExp = c == '-';
+				_slowToken.append((char) c);
+				_pos++;
+				c = peek();
+			}
+			int exp = 0;
+			while(c >= '0' && c <= '9') {
+				if(exp < 100000)
+					exp = exp * 10 + (c - '0');
+				_slowToken.append((char) c);
+				_pos++;
+				c = peek();
+			}
+			exponent += negativeExp ? -exp : exp;
+		}
+		if(!any || (c != -1 && !isSpace(c))) {
+			return slowDouble();
+		}
+		if(mantissa == 0) {
+			return negative ? -0.0 : 0.0;
+		}
+		// Fast path: both the mantissa and the power of ten are exact doubles,
+		// so a single multiplication or division is correctly rounded.
+		if(digits <= 15 && exponent >= -22 && exponent <= 22) {
+			double value = mantissa;
+			value = exponent < 0 ? value / POWERS_OF_TEN[-exponent] : value * POWERS_OF_TEN[exponent];
+			return negative ? -value : value;
+		}
+		return slowDouble();
+	}
+
+	/**
+	 * Parses the token read so far, plus whatever remains of it, with {@link Double#parseDouble(String)}.
+	 */
+	private double slowDouble() throws IOException {
+		int c;
+		while((c = peek()) != -1 && !isSpace(c)) {
+			_slowToken.append((char) c);
+			_pos++;
+		}
+		try {
+			return Double.parseDouble(_slowToken.toString());
+		} catch(NumberFormatException ex) {
+			throw new IOException("ModelReader: expected a number but found " + _slowToken);
+		}
+	}
+}
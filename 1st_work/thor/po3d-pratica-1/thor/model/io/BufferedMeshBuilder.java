@@ -0,0 +1,45 @@
+package thor.model.io;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import thor.model.geoset.BufferedMesh;
+import thor.model.geoset.Vertex;
+
+/**
+ * A {@link MeshVisitor} that builds a {@link BufferedMesh}.
+ */
+class BufferedMeshBuilder implements MeshVisitor {
+	private final BufferedMesh _mesh = new BufferedMesh();
+	private Vertex _last;
+
+	public BufferedMesh getMesh() {
+		return _mesh;
+	}
+
+	@Override
+	public void onHeader(int vertices, int faces) {
+	}
+
+	@Override
+	public void onVertex(double x, double y, double z) {
+		_last = new Vertex(x, y, z);
+		_mesh.addVertex(_last);
+	}
+
+	@Override
+	public void onNormal(float nx, float ny, float nz) {
+		_last.Normal.setLocation(nx, ny, nz);
+	}
+
+	@Override
+	public void onFace(int[] indices, int n) {
+		List<Integer> v = new ArrayList<Integer>(n); // vertices id's
+		List<Integer> vt = new ArrayList<Integer>();// texture coordinates id's
+		List<Float> vn = new ArrayList<Float>();// normal id's
+		for(int k = 0; k < n; k++) {
+			v.add(indices[k]);
+		}
+		_mesh.addFace(v, vt, vn);
+	}
+}
@@ -0,0 +1,163 @@
+package thor.model.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Inflates a gzip stream on a thread of its own, so that decompression overlaps
+ * with the parsing done by the reader of this stream.
+ * <br />
+ * The inflating thread fills a small ring of blocks: it takes empty blocks from
+ * one queue and hands full ones over in another, from which this stream reads.
+ * Read blocks go back to the empty queue, so at most {@link #BLOCKS} blocks are
+ * ever allocated and the inflater is never more than that ahead of the reader.
+ */
+class InflatingInputStream extends InputStream {
+	private static final int BLOCK_SIZE = 1 << 18;
+	private static final int BLOCKS = 4;
+
+	private static class Block {
+		final byte[] data;
+		int length;
+
+		Block(int size) {
+			data = new byte[size];
+		}
+	}
+
+	/** Handed over after the last block, or after an error. */
+	private static final Block END = new Block(0);
+
+	private final BlockingQueue<Block> _empty = new ArrayBlockingQueue<Block>(BLOCKS);
+	private final BlockingQueue<Block> _full = new ArrayBlockingQueue<Block>(BLOCKS + 1);
+	private final Thread _inflater;
+	private volatile IOException _error = null;
+
+	private Block _current = null;
+	private int _pos = 0;
+	private boolean _closed = false;
+
+	/**
+	 * Starts inflating the compressed stream. The compressed stream is closed
+	 * when it ends, when it fails or when this stream is closed.
+	 */
+	public InflatingInputStream(final InputStream compressed) {
+		for(int i = 0; i < BLOCKS; i++) {
+			_empty.add(new Block(BLOCK_SIZE));
+		}
+		_inflater = new Thread("ModelIO inflater") {
+			@Override
+			public void run() {
+				inflate(compressed);
+			}
+		};
+		_inflater.setDaemon(true);
+		_inflater.start();
+	}
+
+	private void inflate(InputStream compressed) {
+		try {
+			try {
+				InputStream in = new GZIPInputStream(compressed, 1 << 16);
+				compressed = in;
+				boolean end = false;
+				while(!end) {
+					Block block = _empty.take();
+					block.length = 0;
+					while(block.length < block.data.length) {
+						int n = in.read(block.data, block.length, block.data.length - block.length);
+						if(n < 0) {
+							end = true;
+							break;
+						}
+						block.length += n;
+					}
+					if(block.length > 0) {
+						_full.put(block);
+					}
+				}
+			} catch(IOException ex) {
+				_error = ex;
+			} finally {
+				try {
+					compressed.close();
+				} catch(IOException ex) {
+					// nothing more will be read from it
+				}
+			}
+			_full.put(END);
+		} catch(InterruptedException ex) {
+			// the reader closed the stream
+		}
+	}
+
+	/**
+	 * Makes sure there is a block with unread bytes.
+	 * @return false at the end of the inflated data.
+	 */
+	private boolean next() throws IOException {
+		if(_current != null && _pos < _current.length)
+			return true;
+		if(_current == END)
+			return false;
+		if(_closed)
+			throw new IOException("ModelReader: stream closed");
+		if(_current != null) {
+			_empty.offer(_current);
+		}
+		try {
+			_current = _full.take();
+		} catch(InterruptedException ex) {
+			throw new InterruptedIOException("ModelReader: interrupted while inflating");
+		}
+		_pos = 0;
+		if(_current == END) {
+			if(_error != null)
+				throw _error;
+			return false;
+		}
+		return true;
+	}
+
+	@Override
+	public int read() throws IOException {
+		if(!next())
+			return -1;
+		return _current.data[_pos++] & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if(len == 0)
+			return 0;
+		if(!next())
+			return -1;
+		int n = Math.min(len, _current.length - _pos);
+		System.arraycopy(_current.data, _pos, b, off, n);
+		_pos += n;
+		return n;
+	}
+
+	@Override
+	public int available() throws IOException {
+		return _current != null ? _current.length - _pos : 0;
+	}
+
+	/**
+	 * Stops the inflating thread, if it is still running, and releases the blocks.
+	 */
+	@Override
+	public void close() {
+		if(_closed)
+			return;
+		_closed = true;
+		_inflater.interrupt();
+		_current = END;
+		_empty.clear();
+		_full.clear();
+	}
+}
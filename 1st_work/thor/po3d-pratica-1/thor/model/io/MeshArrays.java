@@ -0,0 +1,85 @@
+package thor.model.io;
+
+import thor.model.geoset.IndexedTriangleMesh;
+
+/**
+ * A decoded mesh held in primitive arrays.
+ * Face j is made of the vertices faceIndices[faceStarts[j]] to faceIndices[faceStarts[j+1]-1].
+ */
+class MeshArrays {
+	/** x, y, z of each vertex. */
+	final double[] coordinates;
+	/** nx, ny, nz of each vertex, or null if the normals were not read. */
+	final float[] normals;
+	/** Start of each face in faceIndices, plus the total number of indices at the end. */
+	final int[] faceStarts;
+	/** The vertex indices of all the faces, one after the other. */
+	final int[] faceIndices;
+
+	MeshArrays(double[] coordinates, float[] normals, int[] faceStarts, int[] faceIndices) {
+		this.coordinates = coordinates;
+		this.normals = normals;
+		this.faceStarts = faceStarts;
+		this.faceIndices = faceIndices;
+	}
+
+	int countVertices() {
+		return coordinates.length / 3;
+	}
+
+	int countFaces() {
+		return faceStarts.length - 1;
+	}
+
+	/**
+	 * Passes all the vertices and faces to the visitor, as a reader would.
+	 * The header is not passed.
+	 */
+	void accept(MeshVisitor visitor) {
+		for(int i = 0, n = countVertices(); i < n; i++) {
+			visitor.onVertex(coordinates[i*3], coordinates[i*3+1], coordinates[i*3+2]);
+			if(normals != null) {
+				visitor.onNormal(normals[i*3], normals[i*3+1], normals[i*3+2]);
+			}
+		}
+		int[] v = new int[4];
+		for(int j = 0, n = countFaces(); j < n; j++) {
+			int size = faceStarts[j+1] - faceStarts[j];
+			if(size > v.length) {
+				v = new int[size];
+			}
+			System.arraycopy(faceIndices, faceStarts[j], v, 0, size);
+			visitor.onFace(v, size);
+		}
+	}
+
+	/**
+	 * Converts the arrays to an {@link IndexedTriangleMesh}, sharing the coordinates and normals.
+	 * Faces with more than three vertices are split into triangle fans and faces with less are left out.
+	 */
+	IndexedTriangleMesh toIndexedTriangleMesh() {
+		int triangles = 0;
+		boolean allTriangles = true;
+		for(int j = 0, n = countFaces(); j < n; j++) {
+			int size = faceStarts[j+1] - faceStarts[j];
+			triangles += Math.max(0, size - 2);
+			allTriangles &= size == 3;
+		}
+		int[] indices;
+		if(allTriangles) {
+			indices = faceIndices; // all triangles already
+		} else {
+			indices = new int[triangles * 3];
+			int t = 0;
+			for(int j = 0, n = countFaces(); j < n; j++) {
+				int first = faceStarts[j];
+				for(int k = first + 1; k + 1 < faceStarts[j+1]; k++) {
+					indices[t++] = faceIndices[first];
+					indices[t++] = faceIndices[k];
+					indices[t++] = faceIndices[k+1];
+				}
+			}
+		}
+		return new IndexedTriangleMesh(coordinates, normals, indices);
+	}
+}
@@ -0,0 +1,81 @@
+package thor.model.io;
+
+import java.util.Arrays;
+
+/**
+ * A {@link MeshVisitor} that collects a model into {@link MeshArrays}.
+ * The arrays are sized from the header and trimmed when the mesh is taken.
+ */
+class MeshArraysBuilder implements MeshVisitor {
+	private double[] _coordinates = new double[3 * 1024];
+	private float[] _normals = null;
+	private int[] _faceStarts = new int[1024 + 1];
+	private int[] _faceIndices = new int[3 * 1024];
+	private int _vertices = 0;
+	private int _normalCount = 0;
+	private int _faces = 0;
+
+	/**
+	 * @return
+	 * The collected mesh. The normals are only kept if every vertex had one.
+	 */
+	public MeshArrays getMesh() {
+		float[] normals = null;
+		if(_normals != null && _normalCount == _vertices) {
+			normals = Arrays.copyOf(_normals, _vertices * 3);
+		}
+		return new MeshArrays(Arrays.copyOf(_coordinates, _vertices * 3), normals,
+				Arrays.copyOf(_faceStarts, _faces + 1), Arrays.copyOf(_faceIndices, _faceStarts[_faces]));
+	}
+
+	@Override
+	public void onHeader(int vertices, int faces) {
+		if(vertices * 3 > _coordinates.length) {
+			_coordinates = Arrays.copyOf(_coordinates, vertices * 3);
+		}
+		if(faces + 1 > _faceStarts.length) {
+			_faceStarts = Arrays.copyOf(_faceStarts, faces + 1);
+		}
+		if(faces * 3 > _faceIndices.length) {
+			_faceIndices = Arrays.copyOf(_faceIndices, faces * 3);
+		}
+	}
+
+	@Override
+	public void onVertex(double x, double y, double z) {
+		if(_vertices * 3 == _coordinates.length) {
+			_coordinates = Arrays.copyOf(_coordinates, _coordinates.length * 2);
+		}
+		_coordinates[_vertices*3] = x;
+		_coordinates[_vertices*3+1] = y;
+		_coordinates[_vertices*3+2] = z;
+		_vertices++;
+	}
+
+	@Override
+	public void onNormal(float nx, float ny, float nz) {
+		if(_normals == null) {
+			_normals = new float[_coordinates.length];
+		} else if(_normals.length < _vertices * 3) {
+			_normals = Arrays.copyOf(_normals, _coordinates.length);
+		}
+		int i = (_vertices - 1) * 3;
+		_normals[i] = nx;
+		_normals[i+1] = ny;
+		_normals[i+2] = nz;
+		_normalCount++;
+	}
+
+	@Override
+	public void onFace(int[] indices, int n) {
+		if(_faces + 1 == _faceStarts.length) {
+			_faceStarts = Arrays.copyOf(_faceStarts, _faceStarts.length * 2);
+		}
+		int start = _faceStarts[_faces];
+		if(start + n > _faceIndices.length) {
+			_faceIndices = Arrays.copyOf(_faceIndices, Math.max(_faceIndices.length * 2, start + n));
+		}
+		System.arraycopy(indices, 0, _faceIndices, start, n);
+		_faceStarts[++_faces] = start + n;
+	}
+}
@@ -0,0 +1,233 @@
+package thor.model.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Compact binary copies of decoded models, so that a model file only has to be
+ * parsed once.
+ * <br />
+ * The cache of "dir/name.ply" is "dir/name.ply.thmc", or a file in the directory
+ * given by the system property "thor.model.cache.dir". Setting the system property
+ * "thor.model.cache" to false disables the cache.
+ * <br />
+ * A cache file is little endian and holds a header, the vertex coordinates as
+ * doubles, optionally the vertex normals as floats, and the faces as two int
+ * blocks (the start of each face and the vertex indices of all the faces, as in
+ * {@link MeshArrays}). The header records the size, the modification time and the
+ * CRC32 of the source file. A cache is used when the size matches and either the
+ * modification time or the CRC32 match; the CRC32 is only computed when the
+ * modification time differs, e.g. after the source was copied.
+ */
+final class MeshCache {
+	private static final int MAGIC = 0x434d4854; // "THMC"
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 48;
+	private static final int MTIME_OFFSET = 16;
+	private static final int FLAG_NORMALS = 1;
+
+	private static final String EXTENSION = ".thmc";
+	private static final int BLOCK_SIZE = 1 << 16;
+
+	private MeshCache() { }
+
+	/**
+	 * @return
+	 * true unless the system property "thor.model.cache" is false.
+	 */
+	static boolean isEnabled() {
+		return !"false".equalsIgnoreCase(System.getProperty("thor.model.cache"));
+	}
+
+	/**
+	 * @return
+	 * The cache file of the given model file.
+	 */
+	static File getCacheFile(File source) {
+		String dir = System.getProperty("thor.model.cache.dir");
+		if(dir == null) {
+			return new File(source.getAbsolutePath() + EXTENSION);
+		}
+		// models with the same name in different directories must not share the cache
+		String path = source.getAbsolutePath();
+		return new File(dir, source.getName() + "-" + Integer.toHexString(path.hashCode()) + EXTENSION);
+	}
+
+	/**
+	 * Loads the cached mesh of a model file.
+	 * @param source - the model file
+	 * @param normals - whether the mesh must have the vertex normals
+	 * @return
+	 * The cached mesh, or null if there is no valid cache for the file.
+	 */
+	static MeshArrays load(File source, boolean normals) {
+		File cache = getCacheFile(source);
+		if(!cache.isFile())
+			return null;
+		try {
+			MappedByteBuffer buffer = map(cache);
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			if(buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION)
+				return null;
+			if(buffer.getLong(8) != source.length())
+				return null;
+			boolean hasNormals = (buffer.getInt(32) & FLAG_NORMALS) != 0;
+			if(hasNormals != normals)
+				return null;
+			if(buffer.getLong(MTIME_OFFSET) != source.lastModified()) {
+				if(buffer.getLong(24) != checksum(source))
+					return null;
+				try {
+					touch(cache, source.lastModified());
+				} catch(IOException ex) {
+					// the cache is still valid, its date will be checked again next time
+				}
+			}
+
+			int vertices = buffer.getInt(36);
+			int faces = buffer.getInt(40);
+			int indices = buffer.getInt(44);
+			long size = HEADER_SIZE + vertices * 3L * 8 + (hasNormals ? vertices * 3L * 4 : 0) + (faces + 1L) * 4 + indices * 4L;
+			if(vertices < 0 || faces < 0 || indices < 0 || buffer.limit() != size)
+				return null;
+
+			double[] coordinates = new double[vertices * 3];
+			float[] normalValues = hasNormals ? new float[vertices * 3] : null;
+			int[] faceStarts = new int[faces + 1];
+			int[] faceIndices = new int[indices];
+
+			buffer.position(HEADER_SIZE);
+			buffer.asDoubleBuffer().get(coordinates);
+			buffer.position(buffer.position() + coordinates.length * 8);
+			if(hasNormals) {
+				buffer.asFloatBuffer().get(normalValues);
+				buffer.position(buffer.position() + normalValues.length * 4);
+			}
+			buffer.asIntBuffer().get(faceStarts);
+			buffer.position(buffer.position() + faceStarts.length * 4);
+			buffer.asIntBuffer().get(faceIndices);
+			return new MeshArrays(coordinates, normalValues, faceStarts, faceIndices);
+		} catch(IOException ex) {
+			return null;
+		}
+	}
+
+	/**
+	 * Writes the cache of a model file. The cache is written to a temporary file
+	 * that replaces the old cache when complete, so an interrupted write leaves no
+	 * partial cache behind.
+	 * @param source - the model file
+	 * @param mesh - the mesh decoded from the file
+	 */
+	static void store(File source, MeshArrays mesh) throws IOException {
+		File cache = getCacheFile(source);
+		File parent = cache.getAbsoluteFile().getParentFile();
+		if(parent != null && !parent.isDirectory() && !parent.mkdirs())
+			throw new IOException("ModelIO: cannot create the cache directory " + parent);
+		File temp = new File(cache.getPath() + ".tmp");
+
+		ByteBuffer block = ByteBuffer.allocateDirect(BLOCK_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		RandomAccessFile file = new RandomAccessFile(temp, "rw");
+		try {
+			file.setLength(0);
+			FileChannel channel = file.getChannel();
+			block.putInt(MAGIC);
+			block.putInt(VERSION);
+			block.putLong(source.length());
+			block.putLong(source.lastModified());
+			block.putLong(checksum(source));
+			block.putInt(mesh.normals != null ? FLAG_NORMALS : 0);
+			block.putInt(mesh.countVertices());
+			block.putInt(mesh.countFaces());
+			block.putInt(mesh.faceIndices.length);
+
+			for(int i = 0; i < mesh.coordinates.length; i++) {
+				if(block.remaining() < 8)
+					flush(block, channel);
+				block.putDouble(mesh.coordinates[i]);
+			}
+			if(mesh.normals != null) {
+				for(int i = 0; i < mesh.normals.length; i++) {
+					if(block.remaining() < 4)
+						flush(block, channel);
+					block.putFloat(mesh.normals[i]);
+				}
+			}
+			writeInts(mesh.faceStarts, block, channel);
+			writeInts(mesh.faceIndices, block, channel);
+			flush(block, channel);
+		} finally {
+			file.close();
+		}
+		if(cache.exists() && !cache.delete() || !temp.renameTo(cache)) {
+			temp.delete();
+			throw new IOException("ModelIO: cannot write the cache " + cache);
+		}
+	}
+
+	private static void writeInts(int[] values, ByteBuffer block, FileChannel channel) throws IOException {
+		for(int i = 0; i < values.length; i++) {
+			if(block.remaining() < 4)
+				flush(block, channel);
+			block.putInt(values[i]);
+		}
+	}
+
+	private static void flush(ByteBuffer block, FileChannel channel) throws IOException {
+		block.flip();
+		while(block.hasRemaining()) {
+			channel.write(block);
+		}
+		block.clear();
+	}
+
+	/**
+	 * Records a new modification time of the source in the cache header.
+	 */
+	private static void touch(File cache, long mtime) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(cache, "rw");
+		try {
+			ByteBuffer value = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+			value.putLong(0, mtime);
+			file.getChannel().write(value, MTIME_OFFSET);
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * @return
+	 * The CRC32 of the contents of the file.
+	 */
+	static long checksum(File file) throws IOException {
+		CRC32 crc = new CRC32();
+		if(file.length() == 0)
+			return crc.getValue();
+		MappedByteBuffer buffer = map(file);
+		byte[] block = new byte[BLOCK_SIZE];
+		while(buffer.hasRemaining()) {
+			int n = Math.min(block.length, buffer.remaining());
+			buffer.get(block, 0, n);
+			crc.update(block, 0, n);
+		}
+		return crc.getValue();
+	}
+
+	private static MappedByteBuffer map(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			if(channel.size() > Integer.MAX_VALUE)
+				throw new IOException("ModelIO: " + file + " is too large to be mapped");
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} finally {
+			raf.close();
+		}
+	}
+}
@@ -0,0 +1,86 @@
+package thor.model.io;
+
+import java.util.Arrays;
+
+import thor.graphics.Point3D;
+
+/**
+ * A {@link MeshVisitor} that accumulates the bounding box, the vertex centroid
+ * and the surface area of a model while it is being read.
+ * Only the vertex coordinates are kept, in a primitive array, so that the face
+ * areas can be computed; no mesh is built.
+ * Faces with more than three vertices are taken as triangle fans.
+ */
+public class MeshStatistics implements MeshVisitor {
+	private double[] _coordinates = new double[3 * 1024];
+	private int _vertices = 0;
+	private int _faces = 0;
+
+	private double _minX = Double.POSITIVE_INFINITY, _minY = Double.POSITIVE_INFINITY, _minZ = Double.POSITIVE_INFINITY;
+	private double _maxX = Double.NEGATIVE_INFINITY, _maxY = Double.NEGATIVE_INFINITY, _maxZ = Double.NEGATIVE_INFINITY;
+	private double _sumX = 0, _sumY = 0, _sumZ = 0;
+	private double _area = 0;
+
+	@Override
+	public void onHeader(int vertices, int faces) {
+		if(vertices * 3 > _coordinates.length) {
+			_coordinates = Arrays.copyOf(_coordinates, vertices * 3);
+		}
+	}
+
+	@Override
+	public void onVertex(double x, double y, double z) {
+		if(_vertices * 3 == _coordinates.length) {
+			_coordinates = Arrays.copyOf(_coordinates, _coordinates.length * 2);
+		}
+		_coordinates[_vertices*3] = x;
+		_coordinates[_vertices*3+1] = y;
+		_coordinates[_vertices*3+2] = z;
+		_vertices++;
+
+		_minX = Math.min(_minX, x); _maxX = Math.max(_maxX, x);
+		_minY = Math.min(_minY, y); _maxY = Math.max(_maxY, y);
+		_minZ = Math.min(_minZ, z); _maxZ = Math.max(_maxZ, z);
+		_sumX += x; _sumY += y; _sumZ += z;
+	}
+
+	@Override
+	public void onNormal(float nx, float ny, float nz) {
+	}
+
+	@Override
+	public void onFace(int[] indices, int n) {
+		_faces++;
+		final double[] c = _coordinates;
+		final int a = indices[0] * 3;
+		for(int k = 1; k + 1 < n; k++) {
+			final int b = indices[k] * 3;
+			final int d = indices[k+1] * 3;
+			final double ux = c[b] - c[a], uy = c[b+1] - c[a+1], uz = c[b+2] - c[a+2];
+			final double vx = c[d] - c[a], vy = c[d+1] - c[a+1], vz = c[d+2] - c[a+2];
+			final double cx = uy * vz - uz * vy;
+			final double cy = uz * vx - ux * vz;
+			final double cz = ux * vy - uy * vx;
+			_area += 0.5 * Math.sqrt(cx * cx + cy * cy + cz * cz);
+		}
+	}
+
+	public int countVertices() { return _vertices; }
+
+	public int countFaces() { return _faces; }
+
+	public Point3D getMinVertex() { return new Point3D.Double(_minX, _minY, _minZ); }
+
+	public Point3D getMaxVertex() { return new Point3D.Double(_maxX, _maxY, _maxZ); }
+
+	/**
+	 * @return
+	 * The mean of all the vertices.
+	 */
+	public Point3D getCentroid() {
+		double n = Math.max(_vertices, 1);
+		return new Point3D.Double(_sumX / n, _sumY / n, _sumZ / n);
+	}
+
+	public double getSurfaceArea() { return _area; }
+}
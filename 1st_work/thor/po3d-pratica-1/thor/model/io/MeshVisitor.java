@@ -0,0 +1,35 @@
+package thor.model.io;
+
+/**
+ * Receives the contents of a model file while it is being read, so that
+ * it can be consumed without first building a {@link thor.model.geoset.Mesh}.
+ * <br />
+ * The reader calls {@link #onHeader(int, int)} once and then the other methods
+ * in file order; in the usual files all the vertices come before the faces.
+ */
+public interface MeshVisitor {
+	/**
+	 * Called once, before anything else. The counts are only a hint to size
+	 * buffers: formats such as OBJ declare none, and readers that split faces
+	 * deliver more faces than the file declares.
+	 * @param vertices - the number of vertices the file declares, or 0
+	 * @param faces - the number of faces the file declares, or 0
+	 */
+	void onHeader(int vertices, int faces);
+	/**
+	 * Called for every vertex, in index order.
+	 */
+	void onVertex(double x, double y, double z);
+	/**
+	 * Called right after {@link #onVertex(double, double, double)} with the normal
+	 * of that vertex. Only called when the reader was asked to read normals.
+	 */
+	void onNormal(float nx, float ny, float nz);
+	/**
+	 * Called for every face.
+	 * @param indices - the vertex indices of the face; the array is reused
+	 * by the reader, so it must be copied if it is to be kept
+	 * @param n - the number of vertices of the face, i.e. the valid length of indices
+	 */
+	void onFace(int[] indices, int n);
+}
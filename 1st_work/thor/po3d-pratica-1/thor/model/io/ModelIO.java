@@ -0,0 +1,287 @@
+// Copyright 2012 Pedro B. Pascoal
+package thor.model.io;
+
+import java.io.File;
+import java.io.IOException;
+
+import thor.Model;
+import thor.model.BufferedModel;
+import thor.model.geoset.IndexedTriangleMesh;
+import thor.model.geoset.Mesh;
+
+public final class ModelIO {
+
+	public enum OutputFormat {
+		ThOR_JAVA,
+		OBJ,
+		OFF,
+		/** Binary little endian PLY. */
+		PLY,
+		/** Binary little endian PLY with the vertex normals. */
+		PLY_NORMALS
+	}
+
+	/**
+	 * Reads a model file, choosing the reader by the file extension
+	 * (obj, off, ply, stl or mdl). PLY files may also be gzip compressed (ply.gz).
+	 * OBJ, OFF and PLY files are loaded from their compact binary cache when it is up to date,
+	 * and the cache is written when it is not (see {@link MeshCache}).
+	 * The vertices are welded when the system property "thor.model.weld" is set (see {@link VertexWelder}).
+	 * @param file - the file to read
+	 * @return the model read
+	 */
+	public static BufferedModel read(File file) throws IOException, IllegalArgumentException {
+		if(file == null)
+			throw new IllegalArgumentException("ModelIO: Argument cannot be null");
+
+		System.out.println("ModelIO read file: " + file.getName());
+		if(!file.exists() || !file.isFile())
+			throw new IOException("ModelIO: file not found!");
+
+		String name = file.getName();
+		String extension = getExtension(name);
+		if(isCompressed(name) && extension.compareToIgnoreCase("ply") != 0)
+			throw new IOException("ModelIO: only compressed PLY files can be read");
+		String filename = file.getAbsolutePath();
+
+		if(extension.compareToIgnoreCase("obj") == 0)
+			return readCached(file, new ModelReaderObj(name, extension), name, extension);
+		if(extension.compareToIgnoreCase("off") == 0)
+			return readCached(file, new ModelReaderOff(name, extension), name, extension);
+		if(extension.compareToIgnoreCase("ply") == 0)
+			return readCached(file, new ModelReaderPly(name, extension), name, extension);
+		if(extension.compareToIgnoreCase("stl") == 0)
+			return weld(new ModelReaderStl(name, extension).read(filename));
+		if(extension.compareToIgnoreCase("mdl") == 0)
+			return weld(new ModelReaderMdl(name, extension).read(filename));
+
+		throw new IOException("ModelIO: file format not recognized");
+	}
+
+	/**
+	 * Reads a model file and pushes its contents to the visitor as they are
+	 * decoded, without building a model. OBJ, OFF and PLY files can be read this way.
+	 * An up to date cache of the file is used when there is one, but none is written.
+	 * @param file - the file to read
+	 * @param visitor - receives the header, the vertices and the faces of the file
+	 */
+	public static void read(File file, MeshVisitor visitor) throws IOException, IllegalArgumentException {
+		if(file == null || visitor == null)
+			throw new IllegalArgumentException("ModelIO: Argument cannot be null");
+		if(!file.exists() || !file.isFile())
+			throw new IOException("ModelIO: file not found!");
+
+		String name = file.getName();
+		String extension = getExtension(name);
+		if(isCompressed(name) && extension.compareToIgnoreCase("ply") != 0)
+			throw new IOException("ModelIO: only compressed PLY files can be read");
+
+		StreamingModelReader reader = getStreamingReader(name, extension);
+
+		MeshArrays mesh = MeshCache.isEnabled() ? MeshCache.load(file, false) : null;
+		if(mesh != null) {
+			visitor.onHeader(mesh.countVertices(), mesh.countFaces());
+			mesh.accept(visitor);
+		} else {
+			reader.read(file.getAbsolutePath(), visitor);
+		}
+	}
+
+	/**
+	 * Learns the size and layout of a model file without loading it,
+	 * by reading only its header (PLY and OFF) or its beginning (OBJ).
+	 * @param file - the file to probe
+	 * @return what was learned about the file
+	 */
+	public static ModelProbe probe(File file) throws IOException, IllegalArgumentException {
+		if(file == null)
+			throw new IllegalArgumentException("ModelIO: Argument cannot be null");
+		if(!file.exists() || !file.isFile())
+			throw new IOException("ModelIO: file not found!");
+
+		String name = file.getName();
+		String extension = getExtension(name);
+		if(extension.compareToIgnoreCase("ply") == 0)
+			return ModelProbe.probePly(file, isCompressed(name));
+		if(isCompressed(name))
+			throw new IOException("ModelIO: only compressed PLY files can be read");
+		if(extension.compareToIgnoreCase("off") == 0)
+			return ModelProbe.probeOff(file);
+		if(extension.compareToIgnoreCase("obj") == 0)
+			return ModelProbe.probeObj(file);
+
+		throw new IOException("ModelIO: file format not recognized");
+	}
+
+	/**
+	 * Reads a model file into an {@link IndexedTriangleMesh}, which keeps the vertices and
+	 * triangles in primitive arrays instead of Vertex and Face objects. Faces with more than
+	 * three vertices are split into triangle fans. OBJ, OFF and PLY files (also ply.gz) can be read
+	 * this way, through their cache and welded as {@link #read(File)}.
+	 * @param file - the file to read
+	 * @return the model read, with a single IndexedTriangleMesh
+	 */
+	public static BufferedModel readIndexed(File file) throws IOException, IllegalArgumentException {
+		if(file == null)
+			throw new IllegalArgumentException("ModelIO: Argument cannot be null");
+
+		System.out.println("ModelIO read file: " + file.getName());
+		if(!file.exists() || !file.isFile())
+			throw new IOException("ModelIO: file not found!");
+
+		String name = file.getName();
+		String extension = getExtension(name);
+		if(isCompressed(name) && extension.compareToIgnoreCase("ply") != 0)
+			throw new IOException("ModelIO: only compressed PLY files can be read");
+
+		BufferedModel model = new BufferedModel(name, extension);
+		model.addMesh(weld(readArrays(file, getStreamingReader(name, extension))).toIndexedTriangleMesh());
+
+		System.out.println("Model loaded");
+		return model;
+	}
+
+	/**
+	 * Reads a model through its cache, decoding the file with the reader only
+	 * when the cache is missing or out of date.
+	 */
+	private static BufferedModel readCached(File file, StreamingModelReader reader, String name, String extension) throws IOException {
+		BufferedMeshBuilder builder = new BufferedMeshBuilder();
+		if(!MeshCache.isEnabled() && !VertexWelder.isEnabled()) {
+			reader.read(file.getAbsolutePath(), builder);
+		} else {
+			weld(readArrays(file, reader)).accept(builder);
+		}
+
+		BufferedModel model = new BufferedModel(name, extension);
+		model.addMesh(builder.getMesh());
+
+		System.out.println("Model loaded");
+		return model;
+	}
+
+	/**
+	 * Reads a model into arrays, from its cache when it is up to date.
+	 * The cache is written when it is enabled and out of date.
+	 */
+	private static MeshArrays readArrays(File file, StreamingModelReader reader) throws IOException {
+		MeshArrays mesh = MeshCache.isEnabled() ? MeshCache.load(file, false) : null;
+		if(mesh == null) {
+			MeshArraysBuilder arrays = new MeshArraysBuilder();
+			reader.read(file.getAbsolutePath(), arrays);
+			mesh = arrays.getMesh();
+			if(MeshCache.isEnabled()) {
+				try {
+					MeshCache.store(file, mesh);
+				} catch(IOException ex) {
+					System.out.println(ex.getMessage());
+				}
+			}
+		}
+		return mesh;
+	}
+
+	/**
+	 * @return
+	 * The mesh with its vertices welded if welding is enabled, else the same mesh.
+	 * The cache keeps the mesh as it was read, before welding.
+	 */
+	private static MeshArrays weld(MeshArrays mesh) {
+		return VertexWelder.isEnabled() ? VertexWelder.weld(mesh, VertexWelder.getEpsilon()) : mesh;
+	}
+
+	/**
+	 * Welds the vertices of every mesh of a model, if welding is enabled.
+	 */
+	private static BufferedModel weld(BufferedModel model) {
+		if(VertexWelder.isEnabled()) {
+			for(Mesh mesh : model.getMeshes()) {
+				VertexWelder.weld(mesh, VertexWelder.getEpsilon());
+			}
+		}
+		return model;
+	}
+
+	/**
+	 * @return
+	 * The reader of the formats that can be streamed to a {@link MeshVisitor}.
+	 */
+	private static StreamingModelReader getStreamingReader(String name, String extension) throws IOException {
+		if(extension.compareToIgnoreCase("obj") == 0)
+			return new ModelReaderObj(name, extension);
+		if(extension.compareToIgnoreCase("off") == 0)
+			return new ModelReaderOff(name, extension);
+		if(extension.compareToIgnoreCase("ply") == 0)
+			return new ModelReaderPly(name, extension);
+		throw new IOException("ModelIO: file format not supported by visitors");
+	}
+
+	public static boolean write(Model model, OutputFormat format, File file) throws IOException, IllegalArgumentException {
+		if(model == null)
+			throw new IllegalArgumentException("ModelIO: Argument cannot be null");
+
+		if(format == OutputFormat.ThOR_JAVA) {
+			new ModelWriterThorCode().write(model, file);
+			return true;
+		}
+		if(format == OutputFormat.OBJ) {
+			new ModelWriterObj().write(model, file);
+			return true;
+		}
+		if(format == OutputFormat.OFF) {
+			new ModelWriterOff().write(model, file);
+			return true;
+		}
+		if(format == OutputFormat.PLY || format == OutputFormat.PLY_NORMALS) {
+			new ModelWriterPly(format == OutputFormat.PLY_NORMALS).write(model, file);
+			return true;
+		}
+		return false;
+	}
+
+	public static boolean write(Model model, String format, File file) throws IOException, IllegalArgumentException {
+		if(model == null)
+			throw new IllegalArgumentException("ModelIO: Argument cannot be null");
+
+		if(format.equals("java")) {
+			new ModelWriterThorCode().write(model, file);
+			return true;
+		}
+		if(format.equals("obj")) {
+			new ModelWriterObj().write(model, file);
+			return true;
+		}
+		if(format.equals("off")) {
+			new ModelWriterOff().write(model, file);
+			return true;
+		}
+		if(format.equals("ply")) {
+			new ModelWriterPly(false).write(model, file);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return
+	 * true if the file name ends with ".gz".
+	 */
+	private static boolean isCompressed(String name) {
+		return name.toLowerCase().endsWith(".gz");
+	}
+
+	/**
+	 * @return
+	 * The lower case extension of the file name, or an empty string if it has none.
+	 * The extension of a compressed file is the one before ".gz".
+	 */
+	private static String getExtension(String name) {
+		if(isCompressed(name)) {
+			name = name.substring(0, name.length() - 3);
+		}
+		int dot = name.lastIndexOf('.');
+		if(dot > 0 && dot < name.length() - 1)
+			return name.substring(dot + 1).toLowerCase();
+		return "";
+	}
+}
@@ -0,0 +1,375 @@
+package thor.model.io;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * What can be learned about a model file without reading it: the number of
+ * vertices and faces, how it is encoded and, for PLY files, the layout of its elements.
+ * <br />
+ * PLY and OFF files are probed from their header, so the counts are exact.
+ * OBJ files have no header; when they are larger than {@link #OBJ_PREFIX_SIZE}
+ * only that many bytes are scanned and the counts are extrapolated from them.
+ * <br />
+ * Probes are made with {@link ModelIO#probe(File)}.
+ */
+public class ModelProbe {
+	/** How much of an OBJ file is scanned to estimate its counts. */
+	public static final int OBJ_PREFIX_SIZE = 1 << 20;
+	/** In how many blocks the scanned bytes of an OBJ file are spread. */
+	public static final int OBJ_SAMPLES = 16;
+
+	/** Approximate heap bytes taken by each vertex of a BufferedMesh. */
+	private static final long VERTEX_BYTES = 120;
+	/** Approximate heap bytes taken by each face of a BufferedMesh, and by each of its vertices. */
+	private static final long FACE_BYTES = 160;
+	private static final long FACE_VERTEX_BYTES = 24;
+
+	/** An element of a PLY file, as declared in its header. */
+	public static class Element {
+		private final String _name;
+		private final int _count;
+		private final List<String> _properties;
+		private final int _stride;
+		private final long _offset;
+
+		Element(String name, int count, List<String> properties, int stride, long offset) {
+			_name = name;
+			_count = count;
+			_properties = Collections.unmodifiableList(properties);
+			_stride = stride;
+			_offset = offset;
+		}
+
+		public String getName() {
+			return _name;
+		}
+
+		public int getCount() {
+			return _count;
+		}
+
+		/**
+		 * @return
+		 * The property declarations, e.g. "float x" or "list uchar int vertex_indices".
+		 */
+		public List<String> getProperties() {
+			return _properties;
+		}
+
+		/**
+		 * @return
+		 * The binary size of each element, or -1 if the file is ascii or the element has lists.
+		 */
+		public int getStride() {
+			return _stride;
+		}
+
+		/**
+		 * @return
+		 * The offset in the (uncompressed) file of the first element, or -1 if it
+		 * depends on the contents of previous elements.
+		 */
+		public long getOffset() {
+			return _offset;
+		}
+	}
+
+	private final File _file;
+	private final String _extension;
+	private final String _encoding;
+	private final boolean _compressed;
+	private final int _vertices;
+	private final int _faces;
+	private final int _faceVertices;
+	private final boolean _exact;
+	private final long _headerSize;
+	private final List<Element> _elements;
+
+	private ModelProbe(File file, String extension, String encoding, boolean compressed, int vertices, int faces,
+			int faceVertices, boolean exact, long headerSize, List<Element> elements) {
+		_file = file;
+		_extension = extension;
+		_encoding = encoding;
+		_compressed = compressed;
+		_vertices = vertices;
+		_faces = faces;
+		_faceVertices = faceVertices;
+		_exact = exact;
+		_headerSize = headerSize;
+		_elements = Collections.unmodifiableList(elements);
+	}
+
+	public File getFile() {
+		return _file;
+	}
+
+	/**
+	 * @return
+	 * The model format: "ply", "off" or "obj".
+	 */
+	public String getExtension() {
+		return _extension;
+	}
+
+	/**
+	 * @return
+	 * How the body is encoded: "ascii", "binary_little_endian" or "binary_big_endian".
+	 */
+	public String getEncoding() {
+		return _encoding;
+	}
+
+	/**
+	 * @return
+	 * true if the file is gzip compressed.
+	 */
+	public boolean isCompressed() {
+		return _compressed;
+	}
+
+	public int countVertices() {
+		return _vertices;
+	}
+
+	public int countFaces() {
+		return _faces;
+	}
+
+	/**
+	 * @return
+	 * false if the counts were extrapolated from a part of the file.
+	 */
+	public boolean isExact() {
+		return _exact;
+	}
+
+	/**
+	 * @return
+	 * The size in bytes of the header, i.e. the offset of the body.
+	 */
+	public long getHeaderSize() {
+		return _headerSize;
+	}
+
+	/**
+	 * @return
+	 * The elements declared in the header of a PLY file, empty for other formats.
+	 */
+	public List<Element> getElements() {
+		return _elements;
+	}
+
+	/**
+	 * @return
+	 * A rough estimate of the heap bytes needed to load the model into a BufferedModel.
+	 */
+	public long estimateMemory() {
+		long faceVertices = _faceVertices > 0 ? _faceVertices : 3L * _faces;
+		return _vertices * VERTEX_BYTES + _faces * FACE_BYTES + faceVertices * FACE_VERTEX_BYTES;
+	}
+
+	/**
+	 * @return
+	 * A relative measure of the work of loading and processing the model,
+	 * to compare models with each other.
+	 */
+	public long estimateCost() {
+		return (long) _vertices + _faces;
+	}
+
+	@Override
+	public String toString() {
+		return _file.getName() + ": " + _extension + " " + _encoding + (_compressed ? " (gzip)" : "")
+				+ ", " + (_exact ? "" : "~") + _vertices + " vertices, " + (_exact ? "" : "~") + _faces + " faces";
+	}
+
+	/**
+	 * Probes a PLY file from its header.
+	 */
+	static ModelProbe probePly(File file, boolean compressed) throws IOException {
+		InputStream in = open(file, compressed);
+		try {
+			PlyHeader header = PlyHeader.parse(ModelReaderPly.readHeader(in, file.getPath()), file.getPath());
+			List<Element> elements = new ArrayList<Element>();
+			boolean binary = header.format != PlyHeader.Format.ASCII;
+			long offset = header.dataOffset;
+			for(PlyHeader.Element element : header.elements) {
+				List<String> properties = new ArrayList<String>();
+				for(PlyHeader.Property property : element.properties) {
+					properties.add(property.isList()
+							? "list " + typeName(property.countType) + " " + typeName(property.type) + " " + property.name
+							: typeName(property.type) + " " + property.name);
+				}
+				int stride = binary ? element.getFixedSize() : -1;
+				elements.add(new Element(element.name, element.count, properties, stride, offset));
+				offset = offset >= 0 && stride >= 0 ? offset + (long) stride * element.count : -1;
+			}
+			PlyHeader.Element vertex = header.getElement("vertex");
+			PlyHeader.Element face = header.getElement("face");
+			return new ModelProbe(file, "ply", header.format.name().toLowerCase(), compressed,
+					vertex != null ? vertex.count : 0, face != null ? face.count : 0, -1, true, header.dataOffset, elements);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Probes an OFF file from its first lines: the "OFF" keyword (possibly with
+	 * prefixes such as "C" or "N") followed by the vertex, face and edge counts.
+	 */
+	static ModelProbe probeOff(File file) throws IOException {
+		InputStream in = open(file, false);
+		try {
+			StringBuilder line = new StringBuilder();
+			long read = 0;
+			List<String> tokens = new ArrayList<String>();
+			boolean keyword = false;
+			while(tokens.size() < 2) {
+				int c = in.read();
+				if(c < 0 && line.length() == 0)
+					throw new IOException("ModelIO: " + file.getName() + " has no OFF header");
+				read++;
+				if(c >= 0 && c != '\n') {
+					line.append((char) c);
+					continue;
+				}
+				String text = line.toString();
+				int comment = text.indexOf('#');
+				if(comment >= 0) {
+					text = text.substring(0, comment);
+				}
+				for(String token : text.trim().split("\\s+")) {
+					if(token.isEmpty())
+						continue;
+					if(!keyword) {
+						if(!token.toUpperCase().endsWith("OFF"))
+							throw new IOException("ModelIO: " + file.getName() + " is not an OFF file");
+						keyword = true;
+					} else {
+						tokens.add(token);
+					}
+				}
+				line.setLength(0);
+				if(c < 0 && tokens.size() < 2)
+					throw new IOException("ModelIO: " + file.getName() + " has no OFF header");
+			}
+			try {
+				return new ModelProbe(file, "off", "ascii", false, Integer.parseInt(tokens.get(0)), Integer.parseInt(tokens.get(1)),
+						-1, true, read, new ArrayList<Element>());
+			} catch(NumberFormatException ex) {
+				throw new IOException("ModelIO: " + file.getName() + " has a malformed OFF header");
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Probes an OBJ file by counting the "v" and "f" lines. Small files are scanned whole;
+	 * of larger ones only {@link #OBJ_SAMPLES} evenly spaced blocks adding up to
+	 * {@link #OBJ_PREFIX_SIZE} bytes are, and the counts are scaled up to the size of the
+	 * file. Sampling all along the file matters because vertices usually come before faces.
+	 */
+	static ModelProbe probeObj(File file) throws IOException {
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			long size = in.length();
+			boolean whole = size <= OBJ_PREFIX_SIZE;
+			int samples = whole ? 1 : OBJ_SAMPLES;
+			byte[] block = new byte[(int) (whole ? size : OBJ_PREFIX_SIZE / OBJ_SAMPLES)];
+
+			long[] counts = new long[3]; // vertices, faces, face vertices
+			long scanned = 0;
+			for(int s = 0; s < samples; s++) {
+				long offset = whole ? 0 : s * ((size - block.length) / (samples - 1));
+				in.seek(offset);
+				in.readFully(block);
+				// a block that does not start the file starts mid line
+				int from = 0;
+				if(offset > 0) {
+					while(from < block.length && block[from] != '\n')
+						from++;
+					from++;
+				}
+				int to = countObjLines(block, from, whole, counts);
+				scanned += Math.max(0, to - from);
+			}
+
+			long vertices = counts[0], faces = counts[1], faceVertices = counts[2];
+			if(!whole && scanned > 0) {
+				double scale = (double) size / scanned;
+				vertices = Math.round(vertices * scale);
+				faces = Math.round(faces * scale);
+				faceVertices = Math.round(faceVertices * scale);
+			}
+			return new ModelProbe(file, "obj", "ascii", false, (int) Math.min(Integer.MAX_VALUE, vertices), 
+					(int) Math.min(Integer.MAX_VALUE, faces), (int) Math.min(Integer.MAX_VALUE, faceVertices), 
+					whole, 0, new ArrayList<Element>());
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Counts the "v" and "f" lines that end in the block.
+	 * @param last - whether the block ends the file, so its last line needs no line end
+	 * @param counts - incremented with the vertices, faces and face vertices found
+	 * @return the end of the last line counted
+	 */
+	private static int countObjLines(byte[] block, int from, boolean last, long[] counts) {
+		int lineStart = from;
+		for(int i = from; i < block.length; i++) {
+			if(block[i] != '\n' && !(last && i == block.length - 1))
+				continue;
+			int end = block[i] == '\n' ? i : i + 1;
+			int p = lineStart;
+			while(p < end && (block[p] == ' ' || block[p] == '\t'))
+				p++;
+			if(p + 1 < end && (block[p+1] == ' ' || block[p+1] == '\t')) {
+				if(block[p] == 'v') {
+					counts[0]++;
+				} else if(block[p] == 'f') {
+					counts[1]++;
+					counts[2] += countTokens(block, p + 1, end);
+				}
+			}
+			lineStart = i + 1;
+		}
+		return lineStart;
+	}
+
+	private static int countTokens(byte[] line, int from, int to) {
+		int count = 0;
+		boolean inToken = false;
+		for(int i = from; i < to; i++) {
+			boolean space = line[i] == ' ' || line[i] == '\t' || line[i] == '\r';
+			if(!space && !inToken)
+				count++;
+			inToken = !space;
+		}
+		return count;
+	}
+
+	private static InputStream open(File file, boolean compressed) throws IOException {
+		InputStream in = new FileInputStream(file);
+		try {
+			return compressed ? new GZIPInputStream(in, 1 << 12) : new BufferedInputStream(in, 1 << 12);
+		} catch(IOException ex) {
+			in.close();
+			throw ex;
+		}
+	}
+
+	private static String typeName(PlyHeader.Type type) {
+		return type.name().toLowerCase();
+	}
+}
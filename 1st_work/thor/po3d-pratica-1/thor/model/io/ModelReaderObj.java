@@ -0,0 +1,85 @@
+// Copyright 2012 Pedro B. Pascoal
+package thor.model.io;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.util.Arrays;
+
+import thor.model.BufferedModel;
+
+// Wavefront OBJ
+class ModelReaderObj extends ModelReader implements StreamingModelReader {
+
+	private static final int VERTEX = 'v';
+	private static final int FACE = 'f';
+
+	private boolean _triangulate = true;
+
+	public ModelReaderObj(String name, String extension) {
+		super(name, extension);
+	}
+
+	/**
+	 * Sets whether faces with more than three vertices are split into triangle fans
+	 * (see {@link TriangulatingVisitor}). Enabled by default.
+	 */
+	public void setTriangulate(boolean triangulate) {
+		_triangulate = triangulate;
+	}
+
+	public BufferedModel read(String filename) throws IOException {
+		BufferedModel model = new BufferedModel(_name, _extension);
+		BufferedMeshBuilder builder = new BufferedMeshBuilder();
+
+		read(filename, builder);
+		model.addMesh(builder.getMesh());
+
+		System.out.println("Model loaded");
+		return model;
+	}
+
+	/**
+	 * Reads the "v" and "f" lines of the file with an {@link AsciiTokenizer} over the
+	 * mapped file. Only the vertex index of each face corner is used; texture
+	 * coordinates, normals, groups and materials are skipped. Negative (relative)
+	 * indices are resolved against the vertices read so far.
+	 */
+	public void read(String filename, MeshVisitor visitor) throws IOException {
+		MappedByteBuffer buffer = ModelReaderPly.map(filename);
+		if(buffer.limit() == 0) {
+			throw new IOException("ModelReader: " + filename + " is empty");
+		}
+		if(_triangulate) {
+			visitor = new TriangulatingVisitor(visitor);
+		}
+		visitor.onHeader(0, 0);
+
+		AsciiTokenizer tokenizer = new AsciiTokenizer(buffer);
+		int vertices = 0;
+		int[] v = new int[4]; // vertices id's, reused for every face
+
+		for(int keyword = tokenizer.nextKeyword(); keyword != -1; keyword = tokenizer.nextKeyword()) {
+			switch(keyword) {
+			case VERTEX:
+				visitor.onVertex(tokenizer.nextDouble(), tokenizer.nextDouble(), tokenizer.nextDouble());
+				vertices++;
+				break;
+			case FACE:
+				int n = 0;
+				for(int c = tokenizer.peekOnLine(); c != '\n' && c != -1; c = tokenizer.peekOnLine()) {
+					int index = tokenizer.nextIndex();
+					if(n == v.length) {
+						v = Arrays.copyOf(v, n * 2);
+					}
+					v[n++] = index < 0 ? vertices + index : index - 1;
+				}
+				visitor.onFace(v, n);
+				break;
+			default:
+				// comments, texture coordinates, normals, groups, materials...
+				break;
+			}
+			tokenizer.skipLine();
+		}
+	}
+}
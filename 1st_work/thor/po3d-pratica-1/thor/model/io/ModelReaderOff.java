@@ -0,0 +1,98 @@
+// Copyright 2012 Pedro B. Pascoal
+package thor.model.io;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+
+import thor.model.BufferedModel;
+
+// Object File Format
+class ModelReaderOff extends ModelReader implements StreamingModelReader {
+
+	private static final int OFF = AsciiTokenizer.keyword("OFF");
+
+	private boolean _triangulate = true;
+
+	public ModelReaderOff(String name, String extension) {
+		super(name, extension);
+	}
+
+	/**
+	 * Sets whether faces with more than three vertices are split into triangle fans
+	 * (see {@link TriangulatingVisitor}). Enabled by default.
+	 */
+	public void setTriangulate(boolean triangulate) {
+		_triangulate = triangulate;
+	}
+
+	public BufferedModel read(String filename) throws IOException {
+		BufferedModel model = new BufferedModel(_name, _extension);
+		BufferedMeshBuilder builder = new BufferedMeshBuilder();
+
+		read(filename, builder);
+		model.addMesh(builder.getMesh());
+
+		System.out.println("Model loaded");
+		return model;
+	}
+
+	/**
+	 * Reads the file with an {@link AsciiTokenizer} over the mapped file.
+	 * Lines starting with '#' are comments; the colors that may follow
+	 * vertices and faces are skipped.
+	 * The coordinates are rounded to floats.
+	 */
+	public void read(String filename, MeshVisitor visitor) throws IOException {
+		MappedByteBuffer buffer = ModelReaderPly.map(filename);
+		if(buffer.limit() == 0) {
+			throw new IOException("ModelReader: " + filename + " is empty");
+		}
+		AsciiTokenizer tokenizer = new AsciiTokenizer(buffer);
+		// the keyword may have a prefix, as in COFF or NOFF; what follows the coordinates is skipped
+		if(!tokenizer.skipComments('#') || (tokenizer.nextKeyword() & 0xFFFFFF) != OFF) {
+			throw new IOException("ModelReader: " + filename + " format not correct");
+		}
+		// the counts may follow the keyword on the same line
+		if(tokenizer.peekOnLine() == '\n') {
+			tokenizer.skipLine();
+		}
+		if(!tokenizer.skipComments('#')) {
+			throw new IOException("ModelReader: " + filename + " format not correct");
+		}
+		int nVertices = tokenizer.nextInt();
+		int nFaces = tokenizer.nextInt();
+		tokenizer.skipLine(); // number of edges
+
+		if(_triangulate) {
+			visitor = new TriangulatingVisitor(visitor);
+		}
+		visitor.onHeader(nVertices, nFaces);
+
+		for(int i = 0; i < nVertices; i++) {
+			if(!tokenizer.skipComments('#')) {
+				throw new IOException("ModelReader: " + filename + " does not contain correct number of vertices");
+			}
+			float x = (float) tokenizer.nextDouble();
+			float y = (float) tokenizer.nextDouble();
+			float z = (float) tokenizer.nextDouble();
+			visitor.onVertex(x, y, z);
+			tokenizer.skipLine();
+		}
+
+		int[] v = new int[4]; // vertices id's, reused for every face
+		for(int j = 0; j < nFaces; j++) {
+			if(!tokenizer.skipComments('#')) {
+				throw new IOException("ModelReader: " + filename + " does not contain correct number of faces");
+			}
+			int nVertex = tokenizer.nextInt();
+			if(nVertex > v.length) {
+				v = new int[nVertex];
+			}
+			for(int k = 0; k < nVertex; k++) {
+				v[k] = tokenizer.nextInt();
+			}
+			visitor.onFace(v, nVertex);
+			tokenizer.skipLine();
+		}
+	}
+}
@@ -1,23 +1,58 @@
 // Copyright 2012 Pedro B. Pascoal
 package thor.model.io; 
 
-import java.io.FileReader;
+import java.io.FileInputStream;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Locale;
-import java.util.Scanner;
 
 import thor.model.BufferedModel;
-import thor.model.geoset.BufferedMesh;
+import thor.model.geoset.Vertex;
+import thor.util.Parallel;
 
 // Polygon File Format
-class ModelReaderPly extends ModelReader {
+class ModelReaderPly extends ModelReader implements StreamingModelReader {
+	
+	/** The vertex properties that are materialized, the normal is only read when asked for. */
+	private static final String[] VERTEX_PROPERTIES = { "x", "y", "z", "nx", "ny", "nz" };
+	
+	/** Headers of compressed files longer than this are rejected. */
+	private static final int MAX_HEADER_SIZE = 1 << 20;
+	
+	/** Initial size of the window binary bodies are read into from compressed files. */
+	private static final int STREAM_WINDOW_SIZE = 1 << 18;
+	
+	/** Ascii bodies larger than this are decoded in parallel. */
+	private static final int PARALLEL_THRESHOLD = 4 << 20;
+	
+	private boolean _readNormals = false;
+	private boolean _parallel = true;
 	
 	public ModelReaderPly(String name, String extension) {
 		super(name, extension);
 	}
 	
+	/**
+	 * Sets whether the per vertex normals (nx, ny, nz) stored in the file
+	 * are read into {@link Vertex#Normal}. By default they are skipped.
+	 */
+	public void setReadNormals(boolean readNormals) {
+		_readNormals = readNormals;
+	}
+	
+	/**
+	 * Sets whether large ascii files are decoded on all the threads of the
+	 * shared pool (see {@link ParallelPlyAsciiDecoder}). Enabled by default.
+	 */
+	public void setParallel(boolean parallel) {
+		_parallel = parallel;
+	}
+	
 	public BufferedModel read(String filename) throws IOException {
 		/*
 		 * ================================================================ 
@@ -41,80 +76,435 @@ class ModelReaderPly extends ModelReader {
 		 */
 		
 		BufferedModel model = new BufferedModel(_name, _extension);
-		BufferedMesh mesh = new BufferedMesh();
-
-		Scanner root = new Scanner(new FileReader(filename));
-		if(!root.hasNext()) {
-			root.close();
+		BufferedMeshBuilder builder = new BufferedMeshBuilder();
+		
+		read(filename, builder);
+		model.addMesh(builder.getMesh());
+		
+		System.out.println("Model loaded");
+		return model;
+	}
+	
+	/**
+	 * Reads the file and pushes its contents to the visitor as they are decoded,
+	 * without building a mesh. Vertices and faces are delivered in file order.
+	 * @param filename - the file to read
+	 * @param visitor - receives the header, every vertex (and its normal, when
+	 * normals are read) and every face
+	 */
+	public void read(String filename, MeshVisitor visitor) throws IOException {
+		if(filename.toLowerCase().endsWith(".gz")) {
+			readCompressed(filename, visitor);
+			return;
+		}
+		MappedByteBuffer buffer = map(filename);
+		if(buffer.limit() == 0) {
 			throw new IOException("ModelReader: " + filename + " is empty");
 		}
+		PlyHeader header = PlyHeader.parse(buffer, filename);
+		PlyDecodingPlan plan = compile(header, filename, visitor);
 		
-		boolean endHeader = false;
-		int nVertices = 0;
-		int nFaces = 0;
+		if(header.format == PlyHeader.Format.ASCII && _parallel 
+				&& buffer.limit() - header.dataOffset > PARALLEL_THRESHOLD && Parallel.getParallelism() > 1) {
+			ParallelPlyAsciiDecoder.decode(buffer, plan, plan.hasAll(3, 3)).accept(visitor);
+		} else if(header.format == PlyHeader.Format.ASCII) {
+			buffer.position(header.dataOffset);
+			readAscii(new AsciiTokenizer(buffer), plan, visitor);
+		} else {
+			readBinary(buffer, plan, visitor);
+		}
+	}
+	
+	/**
+	 * Reads a gzip compressed file. The file is inflated by a {@link InflatingInputStream}
+	 * on its own thread while the body is decoded on this one.
+	 */
+	private void readCompressed(String filename, MeshVisitor visitor) throws IOException {
+		InflatingInputStream stream = new InflatingInputStream(new FileInputStream(filename));
+		try {
+			PlyHeader header = PlyHeader.parse(readHeader(stream, filename), filename);
+			PlyDecodingPlan plan = compile(header, filename, visitor);
+			if(header.format == PlyHeader.Format.ASCII) {
+				readAscii(new AsciiTokenizer(stream), plan, visitor);
+			} else {
+				readBinary(stream, plan, visitor);
+			}
+		} finally {
+			stream.close();
+		}
+	}
+	
+	/**
+	 * Compiles the decoding plan of the file and passes its header to the visitor.
+	 */
+	private PlyDecodingPlan compile(PlyHeader header, String filename, MeshVisitor visitor) throws IOException {
+		PlyDecodingPlan plan = PlyDecodingPlan.compile(header, 
+				_readNormals ? VERTEX_PROPERTIES : Arrays.copyOf(VERTEX_PROPERTIES, 3));
+		if(header.getElement("vertex") != null && !plan.hasAll(0, 3)) {
+			throw new IOException("ModelReader: " + filename + " vertices must have x, y and z properties");
+		}
 		
-		while(root.hasNext()) {
-			Scanner line = new Scanner(root.nextLine());
-			line.useLocale(Locale.US);
-			
-			String type = line.next();
-			
-			if(type.compareToIgnoreCase("element") == 0) {
-				type = line.next();
-				// Obtains the total number of Vertices
-				if(type.compareToIgnoreCase("vertex") == 0) {
-					nVertices = line.nextInt();
+		PlyHeader.Element vertex = header.getElement("vertex");
+		PlyHeader.Element face = header.getElement("face");
+		visitor.onHeader(vertex != null ? vertex.count : 0, face != null ? face.count : 0);
+		return plan;
+	}
+	
+	/**
+	 * Reads the header lines of a stream, up to and including the end_header line,
+	 * so that the stream is left at the start of the body.
+	 */
+	static ByteBuffer readHeader(InputStream stream, String filename) throws IOException {
+		byte[] header = new byte[1024];
+		int length = 0;
+		int lineStart = 0;
+		while(true) {
+			int c = stream.read();
+			if(c < 0)
+				throw new IOException("ModelReader: " + filename + " has no end_header");
+			if(length == header.length) {
+				if(length >= MAX_HEADER_SIZE)
+					throw new IOException("ModelReader: " + filename + " has no end_header");
+				header = Arrays.copyOf(header, length * 2);
+			}
+			header[length++] = (byte) c;
+			if(c == '\n') {
+				String line = new String(header, lineStart, length - lineStart, "US-ASCII").trim();
+				if(line.compareToIgnoreCase("end_header") == 0)
+					return ByteBuffer.wrap(header, 0, length).slice();
+				lineStart = length;
+			}
+		}
+	}
+	
+	/**
+	 * Maps the whole file into memory.
+	 * The mapping stays valid after the channel is closed.
+	 */
+	static MappedByteBuffer map(String filename) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(filename, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			if(channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("ModelReader: " + filename + " is too large to be mapped");
+			}
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} finally {
+			file.close();
+		}
+	}
+	
+	/**
+	 * Passes a decoded vertex to the visitor.
+	 * @param values - x, y, z and, if they were asked for, nx, ny, nz
+	 */
+	private static void visitVertex(MeshVisitor visitor, double[] values, boolean normals) {
+		visitor.onVertex(values[0], values[1], values[2]);
+		if(normals) {
+			visitor.onNormal((float) values[3], (float) values[4], (float) values[5]);
+		}
+	}
+	
+	/**
+	 * Reads the body of a binary_little_endian or binary_big_endian file
+	 * straight from the mapped buffer, following the decoding plan.
+	 * Fixed size elements are read with absolute gets at the planned offsets
+	 * and are jumped over whole when not needed.
+	 */
+	private void readBinary(MappedByteBuffer buffer, PlyDecodingPlan plan, MeshVisitor visitor) throws IOException {
+		buffer.order(plan.header.format.order);
+		int pos = plan.header.dataOffset;
+		
+		for(PlyDecodingPlan.ElementPlan element : plan.elements) {
+			switch(element.role) {
+			case VERTEX:
+				pos = readBinaryVertices(buffer, pos, plan, element, element.element.count, visitor);
+				break;
+			case FACE:
+				pos = readBinaryFaces(buffer, pos, element, element.element.count, visitor);
+				break;
+			default:
+				pos = skipBinaryElements(buffer, pos, element.element, element.element.count);
+				break;
+			}
+		}
+	}
+	
+	/**
+	 * Reads the body of a binary file from a stream. The stream is read into a window
+	 * and every time the window holds some whole elements they are decoded in place,
+	 * as if the window were the mapped file.
+	 */
+	private void readBinary(InputStream stream, PlyDecodingPlan plan, MeshVisitor visitor) throws IOException {
+		ByteBuffer window = ByteBuffer.allocate(STREAM_WINDOW_SIZE).order(plan.header.format.order);
+		window.limit(0);
+		
+		for(PlyDecodingPlan.ElementPlan element : plan.elements) {
+			int remaining = element.element.count;
+			while(remaining > 0) {
+				int pos = window.position();
+				int count = countWholeElements(window, pos, element.element, remaining);
+				if(count == 0) {
+					window = fill(stream, window);
+					continue;
 				}
-				// Obtains the total number of Faces
-				else if(type.compareToIgnoreCase("face") == 0) {
-					nFaces = line.nextInt();
+				switch(element.role) {
+				case VERTEX:
+					pos = readBinaryVertices(window, pos, plan, element, count, visitor);
+					break;
+				case FACE:
+					pos = readBinaryFaces(window, pos, element, count, visitor);
+					break;
+				default:
+					pos = skipBinaryElements(window, pos, element.element, count);
+					break;
 				}
+				window.position(pos);
+				remaining -= count;
 			}
-			if(type.compareToIgnoreCase("property") == 0) {
-
+		}
+	}
+	
+	/**
+	 * Moves the unread bytes of the window to its start and appends the next bytes
+	 * of the stream, growing the window if it is full.
+	 * @return
+	 * The refilled window, positioned at its first byte.
+	 */
+	private static ByteBuffer fill(InputStream stream, ByteBuffer window) throws IOException {
+		window.compact();
+		if(!window.hasRemaining()) {
+			// a single element larger than the window
+			window.flip();
+			window = ByteBuffer.allocate(window.capacity() * 2).order(window.order()).put(window);
+		}
+		int n = stream.read(window.array(), window.position(), window.remaining());
+		if(n < 0)
+			throw new IOException("ModelReader: file ends before all the elements were read");
+		window.position(window.position() + n);
+		window.flip();
+		return window;
+	}
+	
+	/**
+	 * @return
+	 * How many whole elements, up to max, the buffer holds from pos to its limit.
+	 */
+	private static int countWholeElements(ByteBuffer buffer, int pos, PlyHeader.Element element, int max) {
+		final int limit = buffer.limit();
+		final int stride = element.getFixedSize();
+		if(stride >= 0) {
+			return stride == 0 ? max : Math.min(max, (limit - pos) / stride);
+		}
+		int count = 0;
+		while(count < max) {
+			int end = pos;
+			for(PlyHeader.Property property : element.properties) {
+				if(property.isList()) {
+					if(end + property.countType.size > limit)
+						return count;
+					int n = property.countType.readInt(buffer, end);
+					end += property.countType.size + n * property.type.size;
+				} else {
+					end += property.type.size;
+				}
 			}
-			if(type.compareToIgnoreCase("end_header") == 0) {
-				endHeader = true;
+			if(end > limit)
+				return count;
+			pos = end;
+			count++;
+		}
+		return count;
+	}
+	
+	private int readBinaryVertices(ByteBuffer buffer, int pos, PlyDecodingPlan plan, 
+			PlyDecodingPlan.ElementPlan element, int count, MeshVisitor visitor) throws IOException {
+		final boolean normals = plan.hasAll(3, 3);
+		final int outputs = normals ? 6 : 3;
+		final double[] values = new double[outputs];
+		final int stride = element.stride;
+		
+		if(stride >= 0 && element.allFloats()) {
+			// the common case, no per property type dispatch
+			final int ox = element.offsets[0], oy = element.offsets[1], oz = element.offsets[2];
+			if(!normals) {
+				for(int i = 0; i < count; i++, pos += stride) {
+					visitor.onVertex(buffer.getFloat(pos + ox), buffer.getFloat(pos + oy), buffer.getFloat(pos + oz));
+				}
+				return pos;
 			}
-			
-			if (endHeader) {
-				// Add vertices to mesh
-				for(int i = 0; i < nVertices; i++) {
-					Scanner vertexLine = new Scanner(root.nextLine());
-					vertexLine.useLocale(Locale.US);
-					
-					double x = vertexLine.nextDouble();
-					double y = vertexLine.nextDouble();
-					double z = vertexLine.nextDouble();
-					mesh.addVertex(x, y, z);
-					
-					vertexLine.close();
+			for(int i = 0; i < count; i++, pos += stride) {
+				for(int k = 0; k < outputs; k++) {
+					values[k] = buffer.getFloat(pos + element.offsets[k]);
+				}
+				visitVertex(visitor, values, normals);
+			}
+		}
+		else if(stride >= 0) {
+			for(int i = 0; i < count; i++, pos += stride) {
+				for(int k = 0; k < outputs; k++) {
+					values[k] = element.types[k].readDouble(buffer, pos + element.offsets[k]);
 				}
-				// Add faces to mesh
-				for(int j = 0; j < nFaces; j++) {
-					Scanner faceLine = new Scanner(root.nextLine());
-					faceLine.useLocale(Locale.US);
-					
-					List<Integer> v = new ArrayList<Integer>(); // vertices id's
-					List<Integer> vt = new ArrayList<Integer>();// texture coordinates id's
-					List<Float> vn = new ArrayList<Float>();// normal id's
-					
-					int nVertex = faceLine.nextInt();
-					
-					for(int k = 0; k < nVertex; k++) {
-						v.add(faceLine.nextInt());
+				visitVertex(visitor, values, normals);
+			}
+		}
+		else {
+			// vertices with list properties, walk every property
+			List<PlyHeader.Property> properties = element.element.properties;
+			for(int i = 0; i < count; i++) {
+				for(int p = 0; p < properties.size(); p++) {
+					PlyHeader.Property property = properties.get(p);
+					if(property.isList()) {
+						int n = property.countType.readInt(buffer, pos);
+						pos += property.countType.size + n * property.type.size;
+					} else {
+						int slot = element.slots[p];
+						if(slot >= 0 && slot < outputs) {
+							values[slot] = property.type.readDouble(buffer, pos);
+						}
+						pos += property.type.size;
 					}
-					
-					mesh.addFace(v, vt, vn);
-					faceLine.close();
 				}
+				visitVertex(visitor, values, normals);
 			}
-			line.close();
 		}
-		model.addMesh(mesh);
-		root.close();
+		return pos;
+	}
+	
+	private int readBinaryFaces(ByteBuffer buffer, int pos, PlyDecodingPlan.ElementPlan element, int count, MeshVisitor visitor) {
+		final List<PlyHeader.Property> properties = element.element.properties;
+		final PlyHeader.Property list = properties.get(element.listProperty);
+		final boolean intIndices = list.type == PlyHeader.Type.INT || list.type == PlyHeader.Type.UINT;
+		int[] v = new int[4]; // vertices id's, reused for every face
 		
-		System.out.println("Model loaded");
-		return model;
+		for(int j = 0; j < count; j++) {
+			// jump to the vertex indices
+			if(element.listOffset >= 0) {
+				pos += element.listOffset;
+			} else {
+				for(int p = 0; p < element.listProperty; p++) {
+					pos = skipBinaryProperty(buffer, pos, properties.get(p));
+				}
+			}
+			
+			int n = list.countType.readInt(buffer, pos);
+			pos += list.countType.size;
+			if(n > v.length) {
+				v = new int[n];
+			}
+			if(intIndices) {
+				for(int k = 0; k < n; k++, pos += 4) {
+					v[k] = buffer.getInt(pos);
+				}
+			} else {
+				for(int k = 0; k < n; k++, pos += list.type.size) {
+					v[k] = list.type.readInt(buffer, pos);
+				}
+			}
+			visitor.onFace(v, n);
+			
+			// skip whatever follows the indices
+			for(int p = element.listProperty + 1; p < properties.size(); p++) {
+				pos = skipBinaryProperty(buffer, pos, properties.get(p));
+			}
+		}
+		return pos;
+	}
+	
+	private static int skipBinaryProperty(ByteBuffer buffer, int pos, PlyHeader.Property property) {
+		if(property.isList()) {
+			int n = property.countType.readInt(buffer, pos);
+			return pos + property.countType.size + n * property.type.size;
+		}
+		return pos + property.type.size;
+	}
+	
+	private static int skipBinaryElements(ByteBuffer buffer, int pos, PlyHeader.Element element, int count) {
+		int stride = element.getFixedSize();
+		if(stride >= 0) {
+			return pos + count * stride;
+		}
+		for(int j = 0; j < count; j++) {
+			for(PlyHeader.Property property : element.properties) {
+				pos = skipBinaryProperty(buffer, pos, property);
+			}
+		}
+		return pos;
+	}
+	
+	/**
+	 * Reads the body of an ascii file with an {@link AsciiTokenizer} working on the mapped buffer
+	 * or on the inflated stream, following the decoding plan. Each element is expected on its own line; tokens after the
+	 * last needed property are not looked at and unneeded elements are skipped line by line.
+	 */
+	private void readAscii(AsciiTokenizer tokenizer, PlyDecodingPlan plan, MeshVisitor visitor) throws IOException {
+		for(PlyDecodingPlan.ElementPlan element : plan.elements) {
+			switch(element.role) {
+			case VERTEX:
+				readAsciiVertices(tokenizer, plan, element, visitor);
+				break;
+			case FACE:
+				readAsciiFaces(tokenizer, element, visitor);
+				break;
+			default:
+				for(int i = 0; i < element.element.count; i++) {
+					tokenizer.skipLine();
+				}
+				break;
+			}
+		}
+	}
+	
+	private void readAsciiVertices(AsciiTokenizer tokenizer, PlyDecodingPlan plan, 
+			PlyDecodingPlan.ElementPlan element, MeshVisitor visitor) throws IOException {
+		final boolean normals = plan.hasAll(3, 3);
+		final int outputs = normals ? 6 : 3;
+		final double[] values = new double[outputs];
+		final List<PlyHeader.Property> properties = element.element.properties;
+		
+		for(int i = 0; i < element.element.count; i++) {
+			for(int p = 0; p <= element.lastUsedProperty; p++) {
+				int slot = element.slots[p];
+				if(slot >= 0 && slot < outputs) {
+					values[slot] = tokenizer.nextDouble();
+				} else {
+					skipAsciiProperty(tokenizer, properties.get(p));
+				}
+			}
+			visitVertex(visitor, values, normals);
+			tokenizer.skipLine();
+		}
+	}
+	
+	private void readAsciiFaces(AsciiTokenizer tokenizer, PlyDecodingPlan.ElementPlan element, MeshVisitor visitor) throws IOException {
+		final List<PlyHeader.Property> properties = element.element.properties;
+		int[] v = new int[4]; // vertices id's, reused for every face
+		
+		for(int j = 0; j < element.element.count; j++) {
+			for(int p = 0; p < element.listProperty; p++) {
+				skipAsciiProperty(tokenizer, properties.get(p));
+			}
+			int nVertex = tokenizer.nextInt();
+			if(nVertex > v.length) {
+				v = new int[nVertex];
+			}
+			for(int k = 0; k < nVertex; k++) {
+				v[k] = tokenizer.nextInt();
+			}
+			
+			visitor.onFace(v, nVertex);
+			tokenizer.skipLine();
+		}
+	}
+	
+	static void skipAsciiProperty(AsciiTokenizer tokenizer, PlyHeader.Property property) throws IOException {
+		if(property.isList()) {
+			int n = tokenizer.nextInt();
+			for(int k = 0; k < n; k++) {
+				tokenizer.skipToken();
+			}
+		} else {
+			tokenizer.skipToken();
+		}
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,130 @@
+package thor.model.io;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
+import thor.Model;
+import thor.model.geoset.Face;
+import thor.model.geoset.Mesh;
+import thor.model.geoset.Vertex;
+
+/**
+ * Writes models as binary little endian PLY files.
+ * <br />
+ * The vertices are written as floats, optionally followed by their normals
+ * ({@link Vertex#Normal}), and the faces as lists of int indices. The meshes of
+ * the model are written one after the other as a single mesh.
+ * The body is encoded into a direct buffer that is written to the file channel
+ * whenever it fills up.
+ */
+class ModelWriterPly extends ModelWriter {
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	private final boolean _normals;
+
+	/**
+	 * @param normals - whether the vertex normals are written
+	 */
+	ModelWriterPly(boolean normals) {
+		_normals = normals;
+	}
+
+	@Override
+	public void write(Model model) throws IOException {
+		throw new IOException("Not yet implemented");
+	}
+
+	public void write(Model model, File file) throws IOException {
+		List<Mesh> meshes = model.getMeshes();
+		int vertices = 0;
+		int faces = 0;
+		int maxFaceSize = 0;
+		for(Mesh mesh : meshes) {
+			vertices += mesh.countVertices();
+			faces += mesh.countFaces();
+			for(Face face : mesh.getFaces()) {
+				maxFaceSize = Math.max(maxFaceSize, face.Vertices.size());
+			}
+		}
+		// uchar counts are what most tools write, larger faces need more
+		boolean smallFaces = maxFaceSize <= 0xFF;
+
+		StringBuilder header = new StringBuilder();
+		header.append("ply\n");
+		header.append("format binary_little_endian 1.0\n");
+		header.append("comment This file was saved using the ThOR framework.\n");
+		header.append("comment Original File: ").append(model.getName()).append('\n');
+		header.append("element vertex ").append(vertices).append('\n');
+		header.append("property float x\n");
+		header.append("property float y\n");
+		header.append("property float z\n");
+		if(_normals) {
+			header.append("property float nx\n");
+			header.append("property float ny\n");
+			header.append("property float nz\n");
+		}
+		header.append("element face ").append(faces).append('\n');
+		header.append("property list ").append(smallFaces ? "uchar" : "int").append(" int vertex_indices\n");
+		header.append("end_header\n");
+
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			FileChannel channel = out.getChannel();
+			ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			buffer.put(header.toString().getBytes("US-ASCII"));
+
+			final int vertexSize = _normals ? 24 : 12;
+			for(Mesh mesh : meshes) {
+				for(Vertex vertex : mesh.getVertices()) {
+					if(buffer.remaining() < vertexSize)
+						flush(buffer, channel);
+					buffer.putFloat((float) vertex.getX());
+					buffer.putFloat((float) vertex.getY());
+					buffer.putFloat((float) vertex.getZ());
+					if(_normals) {
+						buffer.putFloat((float) vertex.Normal.getX());
+						buffer.putFloat((float) vertex.Normal.getY());
+						buffer.putFloat((float) vertex.Normal.getZ());
+					}
+				}
+			}
+
+			int base = 0; // index of the first vertex of the mesh
+			for(Mesh mesh : meshes) {
+				for(Face face : mesh.getFaces()) {
+					List<Integer> indices = face.Vertices;
+					int n = indices.size();
+					if(buffer.remaining() < 4 + n * 4) {
+						flush(buffer, channel);
+						if(buffer.capacity() < 4 + n * 4)
+							buffer = ByteBuffer.allocateDirect(4 + n * 4).order(ByteOrder.LITTLE_ENDIAN);
+					}
+					if(smallFaces)
+						buffer.put((byte) n);
+					else
+						buffer.putInt(n);
+					for(int k = 0; k < n; k++) {
+						buffer.putInt(base + indices.get(k));
+					}
+				}
+				base += mesh.countVertices();
+			}
+			flush(buffer, channel);
+		} finally {
+			out.close();
+		}
+	}
+
+	private static void flush(ByteBuffer buffer, FileChannel channel) throws IOException {
+		buffer.flip();
+		while(buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+}
@@ -0,0 +1,248 @@
+package thor.model.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import thor.util.Parallel;
+
+/**
+ * Decodes the body of an ascii PLY file on all the threads of the shared pool.
+ * <br />
+ * The body is split in newline aligned byte ranges. A first parallel pass counts
+ * the lines of each range, which tells every range the index of its first line and
+ * therefore to which element, and to which vertex or face, each of its lines belongs.
+ * A second pass parses the ranges: vertices go straight into the preallocated
+ * coordinate array at their known offset, faces into per range arrays that are
+ * then concatenated.
+ * <br />
+ * Every element must be on a line of its own, with no blank lines in between.
+ */
+class ParallelPlyAsciiDecoder {
+	/** Approximate size in bytes of the ranges parsed by each task. */
+	private static final int CHUNK_SIZE = 1 << 20;
+
+	/** Carries an IOException out of a pool task. */
+	private static class DecodeException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+		DecodeException(IOException cause) {
+			super(cause);
+		}
+	}
+
+	/** The faces parsed from one range. */
+	private static class FaceBlock {
+		int[] sizes = new int[1024];
+		int[] indices = new int[4096];
+		int faces = 0;
+		int count = 0;
+
+		void add(int size) {
+			if(faces == sizes.length)
+				sizes = Arrays.copyOf(sizes, faces * 2);
+			sizes[faces++] = size;
+		}
+
+		void addIndex(int index) {
+			if(count == indices.length)
+				indices = Arrays.copyOf(indices, count * 2);
+			indices[count++] = index;
+		}
+	}
+
+	private final ByteBuffer _buffer;
+	private final PlyDecodingPlan _plan;
+	private final boolean _normals;
+	private final int[] _bounds;
+	private final int[] _firstLine;
+	private final int[] _elementFirstLine;
+
+	private double[] _coordinates;
+	private float[] _normalValues;
+	private FaceBlock[] _faceBlocks;
+
+	private ParallelPlyAsciiDecoder(ByteBuffer buffer, PlyDecodingPlan plan, boolean normals) {
+		_buffer = buffer;
+		_plan = plan;
+		_normals = normals;
+
+		int start = plan.header.dataOffset;
+		int end = buffer.limit();
+		int chunks = Math.max(1, (end - start + CHUNK_SIZE - 1) / CHUNK_SIZE);
+		_bounds = new int[chunks + 1];
+		_bounds[0] = start;
+		_bounds[chunks] = end;
+		for(int c = 1; c < chunks; c++) {
+			int b = Math.max(start + c * CHUNK_SIZE, _bounds[c-1]);
+			while(b < end && buffer.get(b - 1) != '\n') {
+				b++;
+			}
+			_bounds[c] = b;
+		}
+		_firstLine = new int[chunks + 1];
+		_elementFirstLine = new int[plan.elements.length + 1];
+	}
+
+	/**
+	 * Decodes the body of the file into primitive arrays.
+	 * @param buffer - the whole file
+	 * @param plan - the decoding plan of the file, which must be ascii
+	 * @param normals - whether the vertex normals are decoded, the plan must have them
+	 */
+	static MeshArrays decode(ByteBuffer buffer, PlyDecodingPlan plan, boolean normals) throws IOException {
+		ParallelPlyAsciiDecoder decoder = new ParallelPlyAsciiDecoder(buffer, plan, normals);
+		try {
+			return decoder.decode();
+		} catch(RuntimeException ex) {
+			for(Throwable t = ex; t != null; t = t.getCause()) {
+				if(t instanceof IOException)
+					throw (IOException) t;
+			}
+			throw ex;
+		}
+	}
+
+	private MeshArrays decode() throws IOException {
+		final int chunks = _bounds.length - 1;
+
+		// Count the lines of each range.
+		Parallel.forRange(0, chunks, 1, new Parallel.RangeTask() {
+			public void run(int from, int to) {
+				for(int c = from; c < to; c++) {
+					int lines = 0;
+					for(int i = _bounds[c]; i < _bounds[c+1]; i++) {
+						if(_buffer.get(i) == '\n')
+							lines++;
+					}
+					_firstLine[c+1] = lines;
+				}
+			}
+		});
+		int end = _bounds[chunks];
+		if(end > _bounds[0] && _buffer.get(end - 1) != '\n') {
+			_firstLine[chunks]++; // the last line has no line end
+		}
+		for(int c = 0; c < chunks; c++) {
+			_firstLine[c+1] += _firstLine[c];
+		}
+
+		// Locate the lines of each element.
+		int vertices = 0;
+		int faces = 0;
+		for(int e = 0; e < _plan.elements.length; e++) {
+			PlyDecodingPlan.ElementPlan element = _plan.elements[e];
+			_elementFirstLine[e+1] = _elementFirstLine[e] + element.element.count;
+			if(element.role == PlyDecodingPlan.Role.VERTEX)
+				vertices = element.element.count;
+			else if(element.role == PlyDecodingPlan.Role.FACE)
+				faces = element.element.count;
+		}
+		if(_firstLine[chunks] < _elementFirstLine[_plan.elements.length]) {
+			throw new IOException("ModelReader: file ends before all the elements were read");
+		}
+
+		_coordinates = new double[vertices * 3];
+		_normalValues = _normals ? new float[vertices * 3] : null;
+		_faceBlocks = new FaceBlock[chunks];
+
+		// Parse the ranges.
+		Parallel.forRange(0, chunks, 1, new Parallel.RangeTask() {
+			public void run(int from, int to) {
+				try {
+					for(int c = from; c < to; c++) {
+						parseChunk(c);
+					}
+				} catch(IOException ex) {
+					throw new DecodeException(ex);
+				}
+			}
+		});
+
+		// Concatenate the faces.
+		final int[] faceBase = new int[chunks + 1];
+		final int[] indexBase = new int[chunks + 1];
+		for(int c = 0; c < chunks; c++) {
+			faceBase[c+1] = faceBase[c] + _faceBlocks[c].faces;
+			indexBase[c+1] = indexBase[c] + _faceBlocks[c].count;
+		}
+		if(faceBase[chunks] != faces) {
+			throw new IOException("ModelReader: expected " + faces + " faces but found " + faceBase[chunks]);
+		}
+		final int[] faceStarts = new int[faces + 1];
+		final int[] faceIndices = new int[indexBase[chunks]];
+		faceStarts[faces] = faceIndices.length;
+		Parallel.forRange(0, chunks, 1, new Parallel.RangeTask() {
+			public void run(int from, int to) {
+				for(int c = from; c < to; c++) {
+					FaceBlock block = _faceBlocks[c];
+					System.arraycopy(block.indices, 0, faceIndices, indexBase[c], block.count);
+					int start = indexBase[c];
+					for(int j = 0; j < block.faces; j++) {
+						faceStarts[faceBase[c] + j] = start;
+						start += block.sizes[j];
+					}
+					_faceBlocks[c] = null;
+				}
+			}
+		});
+
+		return new MeshArrays(_coordinates, _normalValues, faceStarts, faceIndices);
+	}
+
+	/**
+	 * Parses the lines of one range.
+	 */
+	private void parseChunk(int c) throws IOException {
+		ByteBuffer slice = _buffer.duplicate();
+		slice.limit(_bounds[c+1]);
+		slice.position(_bounds[c]);
+		AsciiTokenizer tokenizer = new AsciiTokenizer(slice);
+		FaceBlock block = new FaceBlock();
+		_faceBlocks[c] = block;
+
+		final int outputs = _normals ? 6 : 3;
+		final PlyDecodingPlan.ElementPlan[] elements = _plan.elements;
+		int e = 0;
+		for(int line = _firstLine[c]; line < _firstLine[c+1]; line++) {
+			while(e < elements.length && line >= _elementFirstLine[e+1]) {
+				e++;
+			}
+			if(e == elements.length)
+				break; // trailing lines after the last element
+
+			PlyDecodingPlan.ElementPlan element = elements[e];
+			List<PlyHeader.Property> properties = element.element.properties;
+			switch(element.role) {
+			case VERTEX:
+				int vertex = line - _elementFirstLine[e];
+				for(int p = 0; p <= element.lastUsedProperty; p++) {
+					int slot = element.slots[p];
+					if(slot >= 0 && slot < outputs) {
+						double value = tokenizer.nextDouble();
+						if(slot < 3)
+							_coordinates[vertex*3 + slot] = value;
+						else
+							_normalValues[vertex*3 + slot - 3] = (float) value;
+					} else {
+						ModelReaderPly.skipAsciiProperty(tokenizer, properties.get(p));
+					}
+				}
+				break;
+			case FACE:
+				for(int p = 0; p < element.listProperty; p++) {
+					ModelReaderPly.skipAsciiProperty(tokenizer, properties.get(p));
+				}
+				int n = tokenizer.nextInt();
+				block.add(n);
+				for(int k = 0; k < n; k++) {
+					block.addIndex(tokenizer.nextInt());
+				}
+				break;
+			default:
+				break;
+			}
+			tokenizer.skipLine();
+		}
+	}
+}
@@ -0,0 +1,154 @@
+package thor.model.io;
+
+import java.util.Arrays;
+
+/**
+ * A PLY header compiled, once per file, into the steps needed to decode its body.
+ * For every element it knows whether it is read as vertices, as faces or skipped,
+ * and for every property whether it is materialized, at which byte offset and with which type.
+ * Properties and elements the caller did not ask for are jumped over without being converted.
+ */
+class PlyDecodingPlan {
+
+	/** What the decoder does with an element. */
+	enum Role { VERTEX, FACE, SKIP }
+
+	/** The decoding steps for one element. */
+	static class ElementPlan {
+		final PlyHeader.Element element;
+		final Role role;
+		/**
+		 * For each property of the element, the index of the output value
+		 * it is decoded into, or -1 if it is skipped.
+		 */
+		final int[] slots;
+		/** The last property that has to be decoded, the rest of the element is skipped. */
+		final int lastUsedProperty;
+		/** Binary size of the element, or -1 if it has list properties. */
+		final int stride;
+		/** Binary offset of each output value inside the element, only valid if stride >= 0. */
+		final int[] offsets;
+		/** Type of each output value. */
+		final PlyHeader.Type[] types;
+		/** For faces, the index of the vertex indices list property. */
+		final int listProperty;
+		/**
+		 * For faces, the binary offset of the vertex indices list, or -1 if a list
+		 * property precedes it and it can only be found by walking the element.
+		 */
+		final int listOffset;
+
+		private ElementPlan(PlyHeader.Element element, Role role, int[] slots, int outputs, int listProperty) {
+			this.element = element;
+			this.role = role;
+			this.slots = slots;
+			this.stride = element.getFixedSize();
+			this.listProperty = listProperty;
+
+			int last = listProperty;
+			offsets = new int[outputs];
+			types = new PlyHeader.Type[outputs];
+			for(int p = 0; p < slots.length; p++) {
+				if(slots[p] >= 0) {
+					offsets[slots[p]] = element.getOffset(p);
+					types[slots[p]] = element.properties.get(p).type;
+					last = Math.max(last, p);
+				}
+			}
+			this.lastUsedProperty = last;
+
+			int offset = -1;
+			if(listProperty >= 0) {
+				offset = 0;
+				for(int p = 0; p < listProperty; p++) {
+					if(element.properties.get(p).isList()) {
+						offset = -1;
+						break;
+					}
+					offset += element.properties.get(p).type.size;
+				}
+			}
+			this.listOffset = offset;
+		}
+
+		/** @return true if every output value of this element is a float. */
+		boolean allFloats() {
+			for(PlyHeader.Type t : types) {
+				if(t != PlyHeader.Type.FLOAT)
+					return false;
+			}
+			return true;
+		}
+	}
+
+	final PlyHeader header;
+	/** The plan for each element, in file order. */
+	final ElementPlan[] elements;
+	/** The vertex property names that were asked for, in output order. */
+	final String[] vertexProperties;
+	/** Whether each of the asked vertex properties is present in the file. */
+	final boolean[] present;
+
+	private PlyDecodingPlan(PlyHeader header, ElementPlan[] elements, String[] vertexProperties, boolean[] present) {
+		this.header = header;
+		this.elements = elements;
+		this.vertexProperties = vertexProperties;
+		this.present = present;
+	}
+
+	/**
+	 * Compiles the header into a decoding plan.
+	 * @param header - the parsed header of the file
+	 * @param vertexProperties - the names of the vertex properties to materialize, in the order
+	 * they are to be delivered; names the file does not declare are left out
+	 */
+	static PlyDecodingPlan compile(PlyHeader header, String[] vertexProperties) {
+		ElementPlan[] plans = new ElementPlan[header.elements.size()];
+		boolean[] present = new boolean[vertexProperties.length];
+		boolean vertexFound = false;
+		boolean faceFound = false;
+
+		for(int e = 0; e < plans.length; e++) {
+			PlyHeader.Element element = header.elements.get(e);
+			int[] slots = new int[element.properties.size()];
+			Arrays.fill(slots, -1);
+
+			if(!vertexFound && element.name.equalsIgnoreCase("vertex")) {
+				vertexFound = true;
+				for(int v = 0; v < vertexProperties.length; v++) {
+					int p = element.indexOf(vertexProperties[v]);
+					if(p >= 0 && !element.properties.get(p).isList()) {
+						slots[p] = v;
+						present[v] = true;
+					}
+				}
+				plans[e] = new ElementPlan(element, Role.VERTEX, slots, vertexProperties.length, -1);
+			}
+			else if(!faceFound && element.name.equalsIgnoreCase("face")) {
+				int list = element.indexOf("vertex_indices");
+				if(list < 0) {
+					list = element.indexOf("vertex_index");
+				}
+				if(list >= 0 && element.properties.get(list).isList()) {
+					faceFound = true;
+					plans[e] = new ElementPlan(element, Role.FACE, slots, 0, list);
+				} else {
+					plans[e] = new ElementPlan(element, Role.SKIP, slots, 0, -1);
+				}
+			}
+			else {
+				plans[e] = new ElementPlan(element, Role.SKIP, slots, 0, -1);
+			}
+		}
+		return new PlyDecodingPlan(header, plans, vertexProperties, present);
+	}
+
+	/** @return true if all the given vertex properties (by output index) are present in the file. */
+	boolean hasAll(int first, int count) {
+		for(int i = first; i < first + count; i++) {
+			if(i >= present.length || !present[i])
+				return false;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,268 @@
+package thor.model.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The header of a Polygon File Format (PLY) file.
+ * It describes how the data that follows it is encoded (ascii or binary),
+ * which elements are present, how many of each and the properties that compose them.
+ */
+class PlyHeader {
+
+	/** The encodings a PLY file body can be stored in. */
+	enum Format {
+		ASCII(null),
+		BINARY_LITTLE_ENDIAN(ByteOrder.LITTLE_ENDIAN),
+		BINARY_BIG_ENDIAN(ByteOrder.BIG_ENDIAN);
+
+		/** The byte order of the binary formats, null for ascii. */
+		final ByteOrder order;
+
+		private Format(ByteOrder order) {
+			this.order = order;
+		}
+
+		static Format parse(String name) {
+			if(name.equalsIgnoreCase("ascii"))
+				return ASCII;
+			if(name.equalsIgnoreCase("binary_little_endian"))
+				return BINARY_LITTLE_ENDIAN;
+			if(name.equalsIgnoreCase("binary_big_endian"))
+				return BINARY_BIG_ENDIAN;
+			return null;
+		}
+	}
+
+	/** The scalar types a property (or a list's count and items) may have. */
+	enum Type {
+		CHAR(1), UCHAR(1), SHORT(2), USHORT(2), INT(4), UINT(4), FLOAT(4), DOUBLE(8);
+
+		/** Size in bytes of a binary encoded value. */
+		final int size;
+
+		private Type(int size) {
+			this.size = size;
+		}
+
+		/**
+		 * Reads a binary encoded value at the given absolute index of the buffer.
+		 * The buffer must already be set to the file's byte order.
+		 */
+		double readDouble(ByteBuffer buffer, int index) {
+			switch(this) {
+			case FLOAT:  return buffer.getFloat(index);
+			case DOUBLE: return buffer.getDouble(index);
+			default:     return readInt(buffer, index);
+			}
+		}
+
+		/**
+		 * Reads a binary encoded value at the given absolute index of the buffer as an int.
+		 * The buffer must already be set to the file's byte order.
+		 */
+		int readInt(ByteBuffer buffer, int index) {
+			switch(this) {
+			case CHAR:   return buffer.get(index);
+			case UCHAR:  return buffer.get(index) & 0xFF;
+			case SHORT:  return buffer.getShort(index);
+			case USHORT: return buffer.getShort(index) & 0xFFFF;
+			case INT:
+			case UINT:   return buffer.getInt(index);
+			case FLOAT:  return (int) buffer.getFloat(index);
+			default:     return (int) buffer.getDouble(index);
+			}
+		}
+
+		static Type parse(String name) {
+			String n = name.toLowerCase();
+			if(n.equals("char") || n.equals("int8"))
+				return CHAR;
+			if(n.equals("uchar") || n.equals("uint8"))
+				return UCHAR;
+			if(n.equals("short") || n.equals("int16"))
+				return SHORT;
+			if(n.equals("ushort") || n.equals("uint16"))
+				return USHORT;
+			if(n.equals("int") || n.equals("int32"))
+				return INT;
+			if(n.equals("uint") || n.equals("uint32"))
+				return UINT;
+			if(n.equals("float") || n.equals("float32"))
+				return FLOAT;
+			if(n.equals("double") || n.equals("float64"))
+				return DOUBLE;
+			return null;
+		}
+	}
+
+	/** A property of an element, either a scalar or a list of scalars. */
+	static class Property {
+		final String name;
+		/** The type of the value, or of the list items. */
+		final Type type;
+		/** The type of the list's item count, null if the property is a scalar. */
+		final Type countType;
+
+		Property(String name, Type type, Type countType) {
+			this.name = name;
+			this.type = type;
+			this.countType = countType;
+		}
+
+		boolean isList() {
+			return countType != null;
+		}
+	}
+
+	/** An element declaration, e.g. "element vertex 8", followed by its properties. */
+	static class Element {
+		final String name;
+		final int count;
+		final List<Property> properties = new ArrayList<Property>();
+
+		Element(String name, int count) {
+			this.name = name;
+			this.count = count;
+		}
+
+		/**
+		 * @return
+		 * The index of the property with the given name, or -1 if there is none.
+		 */
+		int indexOf(String propertyName) {
+			for(int i = 0; i < properties.size(); i++) {
+				if(properties.get(i).name.equals(propertyName))
+					return i;
+			}
+			return -1;
+		}
+
+		/**
+		 * @return
+		 * The size in bytes of one binary encoded element, or -1 if
+		 * it has list properties and therefore has no fixed size.
+		 */
+		int getFixedSize() {
+			int size = 0;
+			for(Property p : properties) {
+				if(p.isList())
+					return -1;
+				size += p.type.size;
+			}
+			return size;
+		}
+
+		/**
+		 * @return
+		 * The byte offset of the property with the given index inside a
+		 * binary encoded element. Only meaningful if the preceding properties are scalars.
+		 */
+		int getOffset(int propertyIndex) {
+			int offset = 0;
+			for(int i = 0; i < propertyIndex; i++) {
+				offset += properties.get(i).type.size;
+			}
+			return offset;
+		}
+	}
+
+	private static final String END_HEADER = "end_header";
+
+	final Format format;
+	final List<Element> elements;
+	/** The byte offset in the file at which the body starts. */
+	final int dataOffset;
+
+	private PlyHeader(Format format, List<Element> elements, int dataOffset) {
+		this.format = format;
+		this.elements = elements;
+		this.dataOffset = dataOffset;
+	}
+
+	/**
+	 * @return
+	 * The element with the given name, or null if the file does not declare it.
+	 */
+	Element getElement(String name) {
+		for(Element e : elements) {
+			if(e.name.equalsIgnoreCase(name))
+				return e;
+		}
+		return null;
+	}
+
+	/**
+	 * Parses the header at the beginning of the buffer.
+	 * The buffer's position is left untouched.
+	 * @param buffer - a buffer starting at the beginning of the file
+	 * @param filename - the name of the file, used in error messages
+	 */
+	static PlyHeader parse(ByteBuffer buffer, String filename) throws IOException {
+		int pos = 0;
+		int limit = buffer.limit();
+
+		Format format = null;
+		List<Element> elements = new ArrayList<Element>();
+		boolean first = true;
+
+		while(pos < limit) {
+			// Header lines are plain ascii, so they are few and small enough to be turned into strings
+			int end = pos;
+			while(end < limit && buffer.get(end) != '\n') {
+				end++;
+			}
+			StringBuilder sb = new StringBuilder(end - pos);
+			for(int i = pos; i < end; i++) {
+				sb.append((char) (buffer.get(i) & 0xFF));
+			}
+			pos = end + 1;
+
+			String[] tokens = sb.toString().trim().split("\\s+");
+			String type = tokens[0];
+
+			if(first) {
+				if(type.compareToIgnoreCase("ply") != 0)
+					throw new IOException("ModelReader: " + filename + " is not a PLY file");
+				first = false;
+			}
+			else if(type.compareToIgnoreCase("format") == 0 && tokens.length > 1) {
+				format = Format.parse(tokens[1]);
+				if(format == null)
+					throw new IOException("ModelReader: " + filename + " has unknown format " + tokens[1]);
+			}
+			else if(type.compareToIgnoreCase("element") == 0 && tokens.length > 2) {
+				elements.add(new Element(tokens[1], Integer.parseInt(tokens[2])));
+			}
+			else if(type.compareToIgnoreCase("property") == 0 && !elements.isEmpty()) {
+				Element element = elements.get(elements.size() - 1);
+				Property property;
+				if(tokens.length > 4 && tokens[1].compareToIgnoreCase("list") == 0) {
+					property = new Property(tokens[4], parseType(tokens[3], filename), parseType(tokens[2], filename));
+				} else if(tokens.length > 2) {
+					property = new Property(tokens[2], parseType(tokens[1], filename), null);
+				} else {
+					throw new IOException("ModelReader: " + filename + " has a malformed property");
+				}
+				element.properties.add(property);
+			}
+			else if(type.compareToIgnoreCase(END_HEADER) == 0) {
+				if(format == null)
+					throw new IOException("ModelReader: " + filename + " does not declare its format");
+				return new PlyHeader(format, elements, pos);
+			}
+			// comments and obj_info are ignored
+		}
+		throw new IOException("ModelReader: " + filename + " has no end_header");
+	}
+
+	private static Type parseType(String name, String filename) throws IOException {
+		Type type = Type.parse(name);
+		if(type == null)
+			throw new IOException("ModelReader: " + filename + " has unknown property type " + name);
+		return type;
+	}
+}
@@ -0,0 +1,16 @@
+package thor.model.io;
+
+import java.io.IOException;
+
+/**
+ * A model reader that can push the contents of a file to a {@link MeshVisitor}
+ * instead of building a model.
+ */
+interface StreamingModelReader {
+	/**
+	 * Reads the file and passes its header, vertices and faces to the visitor.
+	 * @param filename - the file to read
+	 * @param visitor - receives the contents of the file
+	 */
+	void read(String filename, MeshVisitor visitor) throws IOException;
+}
@@ -0,0 +1,44 @@
+package thor.model.io;
+
+/**
+ * Passes a model on to another {@link MeshVisitor} with every face of more than
+ * three vertices split into a fan of triangles around its first vertex.
+ * This is exact for convex faces, which is what model files usually hold.
+ */
+class TriangulatingVisitor implements MeshVisitor {
+	private final MeshVisitor _visitor;
+	private final int[] _triangle = new int[3];
+
+	TriangulatingVisitor(MeshVisitor visitor) {
+		_visitor = visitor;
+	}
+
+	@Override
+	public void onHeader(int vertices, int faces) {
+		_visitor.onHeader(vertices, faces);
+	}
+
+	@Override
+	public void onVertex(double x, double y, double z) {
+		_visitor.onVertex(x, y, z);
+	}
+
+	@Override
+	public void onNormal(float nx, float ny, float nz) {
+		_visitor.onNormal(nx, ny, nz);
+	}
+
+	@Override
+	public void onFace(int[] indices, int n) {
+		if(n <= 3) {
+			_visitor.onFace(indices, n);
+			return;
+		}
+		_triangle[0] = indices[0];
+		for(int k = 1; k + 1 < n; k++) {
+			_triangle[1] = indices[k];
+			_triangle[2] = indices[k+1];
+			_visitor.onFace(_triangle, 3);
+		}
+	}
+}
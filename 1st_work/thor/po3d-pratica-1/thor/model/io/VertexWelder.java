@@ -0,0 +1,308 @@
+package thor.model.io;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import thor.model.geoset.Face;
+import thor.model.geoset.IndexedTriangleMesh;
+import thor.model.geoset.Mesh;
+import thor.model.geoset.Vertex;
+import thor.util.LongIntHashMap;
+import thor.util.Parallel;
+
+/**
+ * Merges the vertices of a mesh that are closer than a distance, as files that repeat
+ * the vertices of every face have them, so that the mesh gets its true topology back.
+ * <br />
+ * The vertices go into a grid of cells as large as the distance, kept in a {@link LongIntHashMap}
+ * from the packed cell coordinates to a chain of the vertices kept so far in the cell. Each vertex,
+ * in file order, is merged into the nearest kept vertex in its cell or the 26 around it, or is kept
+ * if there is none close enough; with a distance of 0 only vertices with the very same coordinates
+ * are merged, and only their own cell is searched. The faces are then renumbered: a vertex repeated
+ * in a row is removed from a face, faces left with less than three vertices are removed, and so are the
+ * vertices no face uses any more (unless the mesh has no faces at all). The kept vertices keep their
+ * order and their normal.
+ * <br />
+ * Welding takes time linear in the size of the mesh. The cells and the new indices are computed in
+ * parallel; the merging itself runs in vertex order, so the result does not depend on the threads.
+ * <br />
+ * {@link ModelIO} welds the models it reads when the system property "thor.model.weld" is set,
+ * either to the distance or to true for a distance of 0.
+ */
+public final class VertexWelder {
+	/** Number of vertices, or indices, handled by each task. */
+	private static final int CHUNK_SIZE = 1 << 16;
+	private static final int CELL_BITS = 21;
+	private static final long CELL_MASK = (1L << CELL_BITS) - 1;
+
+	private VertexWelder() { }
+
+	/**
+	 * @return
+	 * true if the system property "thor.model.weld" is set and not false.
+	 */
+	public static boolean isEnabled() {
+		String property = System.getProperty("thor.model.weld");
+		return property != null && !"false".equalsIgnoreCase(property);
+	}
+
+	/**
+	 * @return
+	 * The distance given by the system property "thor.model.weld", 0 if it is true.
+	 */
+	public static double getEpsilon() {
+		String property = System.getProperty("thor.model.weld");
+		if(property == null || "true".equalsIgnoreCase(property) || "false".equalsIgnoreCase(property))
+			return 0;
+		try {
+			double epsilon = Double.parseDouble(property);
+			if(epsilon >= 0)
+				return epsilon;
+		} catch(NumberFormatException ex) { }
+		throw new IllegalArgumentException("VertexWelder: thor.model.weld must be true, false or a distance, not " + property);
+	}
+
+	/**
+	 * Welds the vertices of a mesh in place, reusing its Vertex and Face objects.
+	 * @param epsilon - vertices closer than this are merged
+	 * @return
+	 * The number of vertices removed.
+	 */
+	public static int weld(Mesh mesh, double epsilon) {
+		if(mesh instanceof IndexedTriangleMesh)
+			throw new IllegalArgumentException("VertexWelder: an IndexedTriangleMesh cannot be resized, weld it while reading");
+		List<Vertex> vertices = mesh.getVertices();
+		List<Face> faces = mesh.getFaces();
+		double[] xyz = new double[vertices.size() * 3];
+		for(int i = 0; i < vertices.size(); i++) {
+			Vertex v = vertices.get(i);
+			xyz[i*3] = v.getX();
+			xyz[i*3+1] = v.getY();
+			xyz[i*3+2] = v.getZ();
+		}
+		int[] starts = new int[faces.size() + 1];
+		for(int j = 0; j < faces.size(); j++) {
+			starts[j+1] = starts[j] + faces.get(j).Vertices.size();
+		}
+		int[] indices = new int[starts[faces.size()]];
+		for(int j = 0, k = 0; j < faces.size(); j++) {
+			for(int v : faces.get(j).Vertices) {
+				indices[k++] = v;
+			}
+		}
+
+		Welding welding = new Welding(xyz, starts, indices, epsilon);
+		List<Vertex> keptVertices = new ArrayList<Vertex>(welding.vertexCount);
+		for(int i = 0; i < vertices.size(); i++) {
+			if(welding.vertexMap[i] >= 0 && welding.representative[i] == i)
+				keptVertices.add(vertices.get(i));
+		}
+		List<Face> keptFaces = new ArrayList<Face>(welding.starts.length - 1);
+		for(int j = 0; j < faces.size(); j++) {
+			int f = welding.faceMap[j];
+			if(f < 0)
+				continue;
+			Face face = faces.get(j);
+			List<Integer> v = new ArrayList<Integer>(welding.starts[f+1] - welding.starts[f]);
+			for(int k = welding.starts[f]; k < welding.starts[f+1]; k++) {
+				v.add(welding.indices[k]);
+			}
+			face.Vertices = v;
+			keptFaces.add(face);
+		}
+		int removed = vertices.size() - keptVertices.size();
+		vertices.clear();
+		vertices.addAll(keptVertices);
+		faces.clear();
+		faces.addAll(keptFaces);
+		mesh.invalidateTopology();
+		return removed;
+	}
+
+	/**
+	 * @return
+	 * The mesh with its vertices welded, or the same mesh if nothing changed.
+	 */
+	static MeshArrays weld(MeshArrays mesh, double epsilon) {
+		Welding welding = new Welding(mesh.coordinates, mesh.faceStarts, mesh.faceIndices, epsilon);
+		if(welding.vertexCount == mesh.countVertices() && welding.starts.length == mesh.faceStarts.length)
+			return mesh;
+		final int[] map = welding.vertexMap;
+		final int[] representative = welding.representative;
+		final double[] oldXyz = mesh.coordinates;
+		final float[] oldNormals = mesh.normals;
+		final double[] xyz = new double[welding.vertexCount * 3];
+		final float[] normals = oldNormals != null ? new float[welding.vertexCount * 3] : null;
+		Parallel.forRange(0, map.length, CHUNK_SIZE, new Parallel.RangeTask() {
+			public void run(int from, int to) {
+				for(int i = from; i < to; i++) {
+					int v = map[i];
+					if(v < 0 || representative[i] != i)
+						continue;
+					System.arraycopy(oldXyz, i*3, xyz, v*3, 3);
+					if(normals != null)
+						System.arraycopy(oldNormals, i*3, normals, v*3, 3);
+				}
+			}
+		});
+		return new MeshArrays(xyz, normals, welding.starts, welding.indices);
+	}
+
+	/**
+	 * The result of welding a mesh given as flat arrays.
+	 */
+	private static final class Welding {
+		/** The vertex each vertex was merged into, itself if it was not. */
+		final int[] representative;
+		/** The new index of each vertex, -1 if it was removed. */
+		final int[] vertexMap;
+		/** The number of vertices kept. */
+		final int vertexCount;
+		/** The new index of each face, -1 if it was removed. */
+		final int[] faceMap;
+		/** The faces, renumbered, as in {@link MeshArrays}. */
+		final int[] starts;
+		final int[] indices;
+
+		Welding(final double[] xyz, int[] faceStarts, int[] faceIndices, double epsilon) {
+			final int vertices = xyz.length / 3;
+			representative = findRepresentatives(xyz, epsilon);
+
+			// renumber the faces by representative, removing repeated vertices and degenerate faces
+			int faces = faceStarts.length - 1;
+			faceMap = new int[faces];
+			int[] newStarts = new int[faces + 1];
+			int[] newIndices = new int[faceIndices.length];
+			boolean[] used = new boolean[vertices];
+			int count = 0, size = 0;
+			for(int j = 0; j < faces; j++) {
+				int first = size;
+				for(int k = faceStarts[j]; k < faceStarts[j+1]; k++) {
+					int v = representative[faceIndices[k]];
+					if(size == first || newIndices[size-1] != v)
+						newIndices[size++] = v;
+				}
+				while(size - first > 1 && newIndices[size-1] == newIndices[first]) {
+					size--;
+				}
+				if(size - first < 3) {
+					size = first;
+					faceMap[j] = -1;
+					continue;
+				}
+				for(int k = first; k < size; k++) {
+					used[newIndices[k]] = true;
+				}
+				faceMap[j] = count;
+				newStarts[++count] = size;
+			}
+			starts = Arrays.copyOf(newStarts, count + 1);
+			indices = Arrays.copyOf(newIndices, size);
+
+			// number the kept vertices in order
+			vertexMap = new int[vertices];
+			int kept = 0;
+			for(int i = 0; i < vertices; i++) {
+				if(representative[i] == i && (used[i] || faces == 0))
+					vertexMap[i] = kept++;
+				else
+					vertexMap[i] = -1;
+			}
+			for(int i = 0; i < vertices; i++) {
+				if(representative[i] != i && vertexMap[representative[i]] >= 0)
+					vertexMap[i] = vertexMap[representative[i]];
+			}
+			vertexCount = kept;
+
+			final int[] map = vertexMap;
+			final int[] renumbered = indices;
+			Parallel.forRange(0, renumbered.length, CHUNK_SIZE, new Parallel.RangeTask() {
+				public void run(int from, int to) {
+					for(int k = from; k < to; k++) {
+						renumbered[k] = map[renumbered[k]];
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * @return
+	 * For every vertex, the vertex it is merged into: itself if it is kept, or the
+	 * nearest earlier vertex kept within epsilon of it.
+	 */
+	static int[] findRepresentatives(final double[] xyz, final double epsilon) {
+		final int vertices = xyz.length / 3;
+		final long[] cells = new long[vertices];
+		Parallel.forRange(0, vertices, CHUNK_SIZE, new Parallel.RangeTask() {
+			public void run(int from, int to) {
+				for(int i = from; i < to; i++) {
+					cells[i] = epsilon > 0 ? cellKey(cell(xyz[i*3], epsilon), cell(xyz[i*3+1], epsilon), cell(xyz[i*3+2], epsilon))
+							: exactKey(xyz[i*3], xyz[i*3+1], xyz[i*3+2]);
+				}
+			}
+		});
+
+		// the kept vertices of each cell are chained through next, starting from the value in the map
+		LongIntHashMap heads = new LongIntHashMap(vertices);
+		int[] next = new int[vertices];
+		int[] representative = new int[vertices];
+		double limit = epsilon * epsilon;
+		int reach = epsilon > 0 ? 1 : 0;
+		for(int i = 0; i < vertices; i++) {
+			double x = xyz[i*3], y = xyz[i*3+1], z = xyz[i*3+2];
+			int nearest = -1;
+			double nearestDistance = Double.POSITIVE_INFINITY;
+			long cx = 0, cy = 0, cz = 0;
+			if(epsilon > 0) {
+				cx = cell(x, epsilon); cy = cell(y, epsilon); cz = cell(z, epsilon);
+			}
+			for(int dx = -reach; dx <= reach; dx++) {
+				for(int dy = -reach; dy <= reach; dy++) {
+					for(int dz = -reach; dz <= reach; dz++) {
+						long key = epsilon > 0 ? cellKey(cx + dx, cy + dy, cz + dz) : cells[i];
+						for(int r = heads.get(key, -1); r >= 0; r = next[r]) {
+							double ex = xyz[r*3] - x, ey = xyz[r*3+1] - y, ez = xyz[r*3+2] - z;
+							double distance = ex * ex + ey * ey + ez * ez;
+							if(distance <= limit && distance < nearestDistance) {
+								nearest = r;
+								nearestDistance = distance;
+							}
+						}
+					}
+				}
+			}
+			if(nearest >= 0) {
+				representative[i] = nearest;
+			} else {
+				representative[i] = i;
+				next[i] = heads.put(cells[i], i, -1);
+			}
+		}
+		return representative;
+	}
+
+	private static long cell(double coordinate, double epsilon) {
+		return (long) Math.floor(coordinate / epsilon);
+	}
+
+	/**
+	 * @return
+	 * The cell packed into a long, 21 bits per coordinate. Far apart cells can share a key,
+	 * which only costs some distance checks.
+	 */
+	private static long cellKey(long x, long y, long z) {
+		return ((x & CELL_MASK) << (2 * CELL_BITS)) | ((y & CELL_MASK) << CELL_BITS) | (z & CELL_MASK);
+	}
+
+	/**
+	 * @return
+	 * A key that is the same for equal coordinates (0 and -0 included).
+	 */
+	private static long exactKey(double x, double y, double z) {
+		long key = Double.doubleToLongBits(x + 0.0);
+		key = key * 31 + Double.doubleToLongBits(y + 0.0);
+		return key * 31 + Double.doubleToLongBits(z + 0.0);
+	}
+}
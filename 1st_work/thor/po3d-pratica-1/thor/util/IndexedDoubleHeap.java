@@ -0,0 +1,161 @@
+package thor.util;
+
+import java.util.Arrays;
+
+/**
+ * A binary min-heap of int ids from 0 to a fixed capacity, each with a double key,
+ * stored in primitive arrays.
+ * <br />
+ * The heap keeps the position of every id, so the key of an id already in the heap can be
+ * changed, or the id removed, in logarithmic time, without leaving stale entries behind.
+ * Ties are broken by the smaller id, so the order in which ids come out does not
+ * depend on the order in which they went in.
+ */
+public final class IndexedDoubleHeap {
+	private final int[] _heap;			// the ids, in heap order
+	private final int[] _positions;		// the position of each id in the heap, -1 if it is not in it
+	private final double[] _keys;		// the key of each id
+	private int _size;
+
+	/**
+	 * @param capacity - the ids go from 0 to capacity - 1
+	 */
+	public IndexedDoubleHeap(int capacity) {
+		_heap = new int[capacity];
+		_positions = new int[capacity];
+		_keys = new double[capacity];
+		Arrays.fill(_positions, -1);
+	}
+
+	public int size() {
+		return _size;
+	}
+
+	public boolean isEmpty() {
+		return _size == 0;
+	}
+
+	public boolean contains(int id) {
+		return _positions[id] >= 0;
+	}
+
+	/**
+	 * @return
+	 * The key of the id, which is meaningless if it is not in the heap.
+	 */
+	public double getKey(int id) {
+		return _keys[id];
+	}
+
+	/**
+	 * Adds the id with the key, or changes its key if it is already in the heap.
+	 */
+	public void set(int id, double key) {
+		int position = _positions[id];
+		_keys[id] = key;
+		if(position < 0) {
+			position = _size++;
+			_heap[position] = id;
+			_positions[id] = position;
+			up(position);
+		} else if(!down(position)) {
+			up(position);
+		}
+	}
+
+	/**
+	 * Removes the id, if it is in the heap.
+	 */
+	public void remove(int id) {
+		int position = _positions[id];
+		if(position < 0)
+			return;
+		_positions[id] = -1;
+		int last = _heap[--_size];
+		if(position == _size)
+			return;
+		_heap[position] = last;
+		_positions[last] = position;
+		if(!down(position)) {
+			up(position);
+		}
+	}
+
+	/**
+	 * @return
+	 * The id with the smallest key.
+	 * @throws IllegalStateException if the heap is empty
+	 */
+	public int peek() {
+		if(_size == 0)
+			throw new IllegalStateException("IndexedDoubleHeap: the heap is empty");
+		return _heap[0];
+	}
+
+	/**
+	 * Removes the id with the smallest key.
+	 * @return
+	 * The id removed.
+	 * @throws IllegalStateException if the heap is empty
+	 */
+	public int poll() {
+		int id = peek();
+		remove(id);
+		return id;
+	}
+
+	/**
+	 * Removes all the ids.
+	 */
+	public void clear() {
+		for(int i = 0; i < _size; i++) {
+			_positions[_heap[i]] = -1;
+		}
+		_size = 0;
+	}
+
+	private boolean less(int a, int b) {
+		double ka = _keys[a], kb = _keys[b];
+		return ka < kb || (ka == kb && a < b);
+	}
+
+	private void up(int position) {
+		int id = _heap[position];
+		while(position > 0) {
+			int parent = (position - 1) >>> 1;
+			int other = _heap[parent];
+			if(!less(id, other))
+				break;
+			_heap[position] = other;
+			_positions[other] = position;
+			position = parent;
+		}
+		_heap[position] = id;
+		_positions[id] = position;
+	}
+
+	/**
+	 * @return
+	 * true if the id moved down.
+	 */
+	private boolean down(int position) {
+		int start = position;
+		int id = _heap[position];
+		while(true) {
+			int child = position * 2 + 1;
+			if(child >= _size)
+				break;
+			if(child + 1 < _size && less(_heap[child+1], _heap[child]))
+				child++;
+			int other = _heap[child];
+			if(!less(other, id))
+				break;
+			_heap[position] = other;
+			_positions[other] = position;
+			position = child;
+		}
+		_heap[position] = id;
+		_positions[id] = position;
+		return position != start;
+	}
+}
@@ -0,0 +1,172 @@
+package thor.util;
+
+import java.util.Arrays;
+
+/**
+ * A map from long keys to int values, stored in two primitive arrays.
+ * <br />
+ * Collisions are resolved by linear probing in a table whose size is a power of two,
+ * and the table doubles when it is more than half full. Nothing is boxed, so a key
+ * costs 12 bytes of table and no garbage. Entries cannot be removed, only cleared all at once.
+ */
+public final class LongIntHashMap {
+	/** Marks the free slots of the table; the key itself is kept apart. */
+	private static final long FREE = Long.MIN_VALUE;
+
+	private long[] _keys;
+	private int[] _values;
+	private int _mask;
+	private int _size;
+	private boolean _hasFreeKey;
+	private int _freeKeyValue;
+
+	public LongIntHashMap() {
+		this(16);
+	}
+
+	/**
+	 * @param expected - the number of keys the map should hold without growing
+	 */
+	public LongIntHashMap(int expected) {
+		int capacity = Integer.highestOneBit(Math.max(4, expected) * 2 - 1) << 1;
+		_keys = new long[capacity];
+		_values = new int[capacity];
+		_mask = capacity - 1;
+		Arrays.fill(_keys, FREE);
+	}
+
+	/**
+	 * @return
+	 * The number of keys in the map.
+	 */
+	public int size() {
+		return _size;
+	}
+
+	public boolean containsKey(long key) {
+		if(key == FREE)
+			return _hasFreeKey;
+		return _keys[find(key)] == key;
+	}
+
+	/**
+	 * @return
+	 * The value of the key, or defaultValue if the map does not have it.
+	 */
+	public int get(long key, int defaultValue) {
+		if(key == FREE)
+			return _hasFreeKey ? _freeKeyValue : defaultValue;
+		int slot = find(key);
+		return _keys[slot] == key ? _values[slot] : defaultValue;
+	}
+
+	/**
+	 * Sets the value of the key.
+	 * @return the previous value of the key, or defaultValue if the map did not have it
+	 */
+	public int put(long key, int value, int defaultValue) {
+		if(key == FREE) {
+			int previous = _hasFreeKey ? _freeKeyValue : defaultValue;
+			if(!_hasFreeKey)
+				_size++;
+			_hasFreeKey = true;
+			_freeKeyValue = value;
+			return previous;
+		}
+		int slot = find(key);
+		if(_keys[slot] == key) {
+			int previous = _values[slot];
+			_values[slot] = value;
+			return previous;
+		}
+		insert(slot, key, value);
+		return defaultValue;
+	}
+
+	/**
+	 * Adds delta to the value of the key, which starts at 0 if the map does not have it.
+	 * @return the new value of the key
+	 */
+	public int addTo(long key, int delta) {
+		if(key == FREE) {
+			if(!_hasFreeKey)
+				_size++;
+			_hasFreeKey = true;
+			return _freeKeyValue += delta;
+		}
+		int slot = find(key);
+		if(_keys[slot] == key)
+			return _values[slot] += delta;
+		insert(slot, key, delta);
+		return delta;
+	}
+
+	/**
+	 * Removes all the keys, keeping the table.
+	 */
+	public void clear() {
+		Arrays.fill(_keys, FREE);
+		_size = 0;
+		_hasFreeKey = false;
+	}
+
+	/**
+	 * Calls the visitor with every key and value, in no particular order.
+	 */
+	public void forEach(EntryVisitor visitor) {
+		if(_hasFreeKey)
+			visitor.visit(FREE, _freeKeyValue);
+		for(int i = 0; i < _keys.length; i++) {
+			if(_keys[i] != FREE)
+				visitor.visit(_keys[i], _values[i]);
+		}
+	}
+
+	/** Receives the entries of {@link LongIntHashMap#forEach(EntryVisitor)}. */
+	public interface EntryVisitor {
+		void visit(long key, int value);
+	}
+
+	/**
+	 * @return
+	 * The slot of the key, or the free slot where it would be inserted.
+	 */
+	private int find(long key) {
+		int slot = hash(key) & _mask;
+		while(_keys[slot] != FREE && _keys[slot] != key) {
+			slot = (slot + 1) & _mask;
+		}
+		return slot;
+	}
+
+	private void insert(int slot, long key, int value) {
+		_keys[slot] = key;
+		_values[slot] = value;
+		if(++_size * 2 > _keys.length)
+			rehash(_keys.length * 2);
+	}
+
+	private void rehash(int capacity) {
+		long[] keys = _keys;
+		int[] values = _values;
+		_keys = new long[capacity];
+		_values = new int[capacity];
+		_mask = capacity - 1;
+		Arrays.fill(_keys, FREE);
+		for(int i = 0; i < keys.length; i++) {
+			if(keys[i] != FREE) {
+				int slot = find(keys[i]);
+				_keys[slot] = keys[i];
+				_values[slot] = values[i];
+			}
+		}
+	}
+
+	/** Spreads the bits of the key over the low bits used to index the table. */
+	private static int hash(long key) {
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		return (int) key;
+	}
+}
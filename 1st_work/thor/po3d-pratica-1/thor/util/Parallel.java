@@ -0,0 +1,96 @@
+package thor.util;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Shared fork-join pool and a parallel loop over index ranges.
+ * <br />
+ * The number of worker threads defaults to the number of available processors
+ * and can be set with the system property "thor.parallelism".
+ */
+public final class Parallel {
+
+	/**
+	 * The body of a parallel loop. It is called with disjoint [from, to[ ranges
+	 * that together cover the whole loop, possibly from several threads at once.
+	 */
+	public interface RangeTask {
+		void run(int from, int to);
+	}
+
+	private static ForkJoinPool _pool;
+
+	private Parallel() { }
+
+	/**
+	 * @return
+	 * The number of threads of the shared pool.
+	 */
+	public static int getParallelism() {
+		return getPool().getParallelism();
+	}
+
+	/**
+	 * @return
+	 * The shared pool, created on first use.
+	 */
+	public static synchronized ForkJoinPool getPool() {
+		if(_pool == null) {
+			int parallelism = Runtime.getRuntime().availableProcessors();
+			String property = System.getProperty("thor.parallelism");
+			if(property != null) {
+				try {
+					parallelism = Math.max(1, Integer.parseInt(property.trim()));
+				} catch(NumberFormatException ex) {
+					// keep the number of processors
+				}
+			}
+			_pool = new ForkJoinPool(parallelism);
+		}
+		return _pool;
+	}
+
+	/**
+	 * Runs the task over [from, to[ split in ranges of at most grain indices.
+	 * Small loops, or a single threaded pool, run the task directly on the calling thread.
+	 * A runtime exception thrown by the task is rethrown by this method.
+	 * @param grain - the maximum size of the ranges given to the task
+	 */
+	public static void forRange(int from, int to, int grain, RangeTask task) {
+		if(to <= from)
+			return;
+		grain = Math.max(1, grain);
+		if(to - from <= grain || getParallelism() == 1) {
+			task.run(from, to);
+			return;
+		}
+		getPool().invoke(new RangeAction(from, to, grain, task));
+	}
+
+	private static class RangeAction extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final int _from;
+		private final int _to;
+		private final int _grain;
+		private final RangeTask _task;
+
+		RangeAction(int from, int to, int grain, RangeTask task) {
+			_from = from;
+			_to = to;
+			_grain = grain;
+			_task = task;
+		}
+
+		@Override
+		protected void compute() {
+			if(_to - _from <= _grain) {
+				_task.run(_from, _to);
+				return;
+			}
+			int mid = _from + (_to - _from) / 2;
+			invokeAll(new RangeAction(_from, mid, _grain, _task), new RangeAction(mid, _to, _grain, _task));
+		}
+	}
+}
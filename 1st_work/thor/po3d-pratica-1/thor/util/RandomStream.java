@@ -0,0 +1,107 @@
+package thor.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A fast, seedable and splittable stream of pseudo-random numbers, the xoshiro256**
+ * generator of Blackman and Vigna, for the sampling code that needs the same numbers for
+ * the same seed, and one stream per thread rather than a shared, synchronized {@link java.util.Random}.
+ * <br />
+ * The 256 bits of state are filled from the seed by SplitMix64, as the authors recommend, and
+ * {@link #split()} seeds a new stream from the numbers of this one in the same way. A stream
+ * must not be shared between threads: each thread should use its own, split off a common one
+ * or made with {@link #RandomStream(long, long)}.
+ */
+public final class RandomStream {
+	private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+	private static final double DOUBLE_UNIT = 0x1.0p-53;
+	private static final AtomicLong SEED_UNIQUIFIER = new AtomicLong(0x2545f4914f6cdd1dL);
+
+	private long _s0, _s1, _s2, _s3;
+
+	/**
+	 * Creates a stream with a seed that differs on every call, as new java.util.Random() does.
+	 */
+	public RandomStream() {
+		this(SEED_UNIQUIFIER.getAndAdd(GOLDEN_GAMMA) ^ System.nanoTime());
+	}
+
+	/**
+	 * Creates a stream that always gives the same numbers for the same seed.
+	 */
+	public RandomStream(long seed) {
+		long x = seed;
+		_s0 = mix(x += GOLDEN_GAMMA);
+		_s1 = mix(x += GOLDEN_GAMMA);
+		_s2 = mix(x += GOLDEN_GAMMA);
+		_s3 = mix(x += GOLDEN_GAMMA);
+		if((_s0 | _s1 | _s2 | _s3) == 0)
+			_s0 = GOLDEN_GAMMA; // the all zero state never leaves zero
+	}
+
+	/**
+	 * Creates the stream numbered index of the seed: the same seed and index always give the
+	 * same numbers, and different indices give independent streams, whatever the order or the
+	 * thread they are made in.
+	 */
+	public RandomStream(long seed, long index) {
+		this(mix(seed) ^ mix(index * GOLDEN_GAMMA + GOLDEN_GAMMA));
+	}
+
+	/**
+	 * @return
+	 * A new stream seeded from the next number of this one, independent of it for all practical purposes.
+	 */
+	public RandomStream split() {
+		return new RandomStream(nextLong());
+	}
+
+	/**
+	 * @return
+	 * The next 64 random bits.
+	 */
+	public long nextLong() {
+		final long result = Long.rotateLeft(_s1 * 5, 7) * 9;
+		final long t = _s1 << 17;
+		_s2 ^= _s0;
+		_s3 ^= _s1;
+		_s1 ^= _s2;
+		_s0 ^= _s3;
+		_s2 ^= t;
+		_s3 = Long.rotateLeft(_s3, 45);
+		return result;
+	}
+
+	/**
+	 * @return
+	 * A uniform number in [0, 1[, from the top 53 bits of {@link #nextLong()}.
+	 */
+	public double nextDouble() {
+		return (nextLong() >>> 11) * DOUBLE_UNIT;
+	}
+
+	/**
+	 * @return
+	 * A uniform int from 0 to bound - 1, without the bias of a plain modulo.
+	 */
+	public int nextInt(int bound) {
+		if(bound <= 0)
+			throw new IllegalArgumentException("RandomStream: bound must be positive");
+		// Lemire's multiply and shift, rejecting the few values that would bias the result
+		long m = (nextLong() >>> 32) * bound;
+		if((m & 0xFFFFFFFFL) < bound) {
+			long threshold = (0x100000000L - bound) % bound;
+			while((m & 0xFFFFFFFFL) < threshold) {
+				m = (nextLong() >>> 32) * bound;
+			}
+		}
+		return (int) (m >>> 32);
+	}
+
+	/** The SplitMix64 finalizer, a bijection that spreads every bit of z over the result. */
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+}
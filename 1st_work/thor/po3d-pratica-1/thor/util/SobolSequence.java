@@ -0,0 +1,88 @@
+package thor.util;
+
+/**
+ * The first dimensions of the Sobol low-discrepancy sequence, Owen scrambled, for
+ * sampling that covers its domain more evenly than independent random numbers do.
+ * <br />
+ * The direction numbers are those of Joe and Kuo. Each dimension is scrambled with its
+ * own random seed by the hash-based nested uniform scrambling of Burley ("Practical
+ * Hash-based Owen Scrambling", 2020), so the points stay as well spread as the plain
+ * sequence but are random, and independent from one sequence to the next.
+ */
+public final class SobolSequence {
+	/** The number of dimensions that have direction numbers. */
+	public static final int MAX_DIMENSIONS = 3;
+
+	private static final int BITS = 32;
+	private static final double INT_UNIT = 0x1.0p-32;
+	/** The direction numbers of each dimension, the most significant bit first. */
+	private static final int[][] DIRECTIONS = new int[MAX_DIMENSIONS][BITS];
+
+	static {
+		for(int k = 0; k < BITS; k++) {
+			// the van der Corput sequence
+			DIRECTIONS[0][k] = 1 << (BITS - 1 - k);
+		}
+		// x + 1, m = {1}
+		DIRECTIONS[1][0] = 1 << (BITS - 1);
+		for(int k = 1; k < BITS; k++) {
+			DIRECTIONS[1][k] = DIRECTIONS[1][k-1] ^ (DIRECTIONS[1][k-1] >>> 1);
+		}
+		// x^2 + x + 1, m = {1, 3}
+		DIRECTIONS[2][0] = 1 << (BITS - 1);
+		DIRECTIONS[2][1] = 3 << (BITS - 2);
+		for(int k = 2; k < BITS; k++) {
+			DIRECTIONS[2][k] = DIRECTIONS[2][k-2] ^ (DIRECTIONS[2][k-2] >>> 2) ^ DIRECTIONS[2][k-1];
+		}
+	}
+
+	private final int[] _seeds;
+
+	/**
+	 * Creates a sequence of the given number of dimensions, scrambled with numbers of random.
+	 */
+	public SobolSequence(int dimensions, RandomStream random) {
+		if(dimensions < 1 || dimensions > MAX_DIMENSIONS)
+			throw new IllegalArgumentException("SobolSequence: the dimensions must be from 1 to " + MAX_DIMENSIONS);
+		_seeds = new int[dimensions];
+		for(int d = 0; d < dimensions; d++) {
+			_seeds[d] = (int) (random.nextLong() >>> 32);
+		}
+	}
+
+	/**
+	 * @return
+	 * The number of dimensions of the points.
+	 */
+	public int getDimensions() {
+		return _seeds.length;
+	}
+
+	/**
+	 * @return
+	 * The coordinate of the point number index in the dimension, in [0, 1[.
+	 */
+	public double get(int index, int dimension) {
+		final int[] directions = DIRECTIONS[dimension];
+		int x = 0;
+		for(int k = 0, i = index; i != 0; k++, i >>>= 1) {
+			if((i & 1) != 0)
+				x ^= directions[k];
+		}
+		return (scramble(x, _seeds[dimension]) & 0xFFFFFFFFL) * INT_UNIT;
+	}
+
+	/**
+	 * Nested uniform scrambling: the Laine-Karras hash, which only lets each bit depend on
+	 * the bits below it, applied to the reversed bits so that each depends on those above it.
+	 */
+	private static int scramble(int x, int seed) {
+		x = Integer.reverse(x);
+		x += seed;
+		x ^= x * 0x6c50b47c;
+		x ^= x * 0xb82f1e52;
+		x ^= x * 0xc7afe638;
+		x ^= x * 0x8d22f6e6;
+		return Integer.reverse(x);
+	}
+}